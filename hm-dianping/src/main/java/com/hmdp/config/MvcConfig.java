@@ -1,19 +1,34 @@
 package com.hmdp.config;
 
+import com.hmdp.utils.AdminInterceptor;
 import com.hmdp.utils.LoginInterceptor;
 import com.hmdp.utils.RefreshInterceptor;
+import com.hmdp.utils.UvInterceptor;
+import com.hmdp.utils.UvStats;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.web.servlet.config.annotation.InterceptorRegistry;
 import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
 
+import java.util.HashSet;
+import java.util.List;
+
 @Configuration
 public class MvcConfig implements WebMvcConfigurer {
 
     private final StringRedisTemplate stringRedisTemplate;
 
-    public MvcConfig(StringRedisTemplate stringRedisTemplate) {
+    private final UvStats uvStats;
+
+    // 允许访问 /admin/** 的管理员用户 id，未配置时为空，即全部拒绝
+    private final List<Long> adminUserIds;
+
+    public MvcConfig(StringRedisTemplate stringRedisTemplate, UvStats uvStats,
+                     @Value("${hmdp.admin.user-ids:}") List<Long> adminUserIds) {
         this.stringRedisTemplate = stringRedisTemplate;
+        this.uvStats = uvStats;
+        this.adminUserIds = adminUserIds;
     }
 
     @Override
@@ -22,14 +37,20 @@ public class MvcConfig implements WebMvcConfigurer {
                 .excludePathPatterns(
                         "/shop/**",
                         "/voucher/**",
-                        "/shop-type/**",
-                        "/upload/**",
+                        "/shop-type/list",
                         "/blog/hot",
+                        "/blog/likes/**",
+                        "/blog-comments/of/**",
                         "/user/code",
+                        "/user/rank/credits",
                         "/user/login"
                 ).order(1);
         registry.addInterceptor(new RefreshInterceptor(stringRedisTemplate))
                 .addPathPatterns("/**").order(0);
+        registry.addInterceptor(new UvInterceptor(uvStats))
+                .addPathPatterns("/shop/**", "/blog/**").order(2);
+        registry.addInterceptor(new AdminInterceptor(new HashSet<>(adminUserIds)))
+                .addPathPatterns("/admin/**").order(3);
     }
 
 
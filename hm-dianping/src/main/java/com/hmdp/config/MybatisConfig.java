@@ -2,16 +2,22 @@ package com.hmdp.config;
 
 import com.baomidou.mybatisplus.annotation.DbType;
 import com.baomidou.mybatisplus.extension.plugins.MybatisPlusInterceptor;
-import com.baomidou.mybatisplus.extension.plugins.inner.PaginationInnerInterceptor;
+import com.hmdp.utils.PageCountInterceptor;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.data.redis.core.StringRedisTemplate;
 
 @Configuration
 public class MybatisConfig {
     @Bean
-    public MybatisPlusInterceptor mybatisPlusInterceptor() {
+    public PageCountInterceptor pageCountInterceptor(StringRedisTemplate stringRedisTemplate) {
+        return new PageCountInterceptor(DbType.MYSQL, stringRedisTemplate);
+    }
+
+    @Bean
+    public MybatisPlusInterceptor mybatisPlusInterceptor(PageCountInterceptor pageCountInterceptor) {
         MybatisPlusInterceptor interceptor = new MybatisPlusInterceptor();
-        interceptor.addInnerInterceptor(new PaginationInnerInterceptor(DbType.MYSQL));
+        interceptor.addInnerInterceptor(pageCountInterceptor);
         return interceptor;
     }
 }
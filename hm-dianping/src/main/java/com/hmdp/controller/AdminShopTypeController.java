@@ -0,0 +1,45 @@
+package com.hmdp.controller;
+
+
+import com.hmdp.dto.Result;
+import com.hmdp.entity.ShopType;
+import com.hmdp.service.IShopTypeService;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.PutMapping;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+import javax.annotation.Resource;
+
+/**
+ * <p>
+ * 商铺类型维护，仅管理员可用
+ * </p>
+ */
+@RestController
+@RequestMapping("/admin/shop-type")
+public class AdminShopTypeController {
+    @Resource
+    private IShopTypeService typeService;
+
+    /**
+     * 新增商铺类型
+     * @param shopType 商铺类型数据
+     * @return 商铺类型id
+     */
+    @PostMapping
+    public Result saveShopType(@RequestBody ShopType shopType) {
+        return typeService.saveShopType(shopType);
+    }
+
+    /**
+     * 更新商铺类型
+     * @param shopType 商铺类型数据
+     * @return 无
+     */
+    @PutMapping
+    public Result updateShopType(@RequestBody ShopType shopType) {
+        return typeService.updateShopType(shopType);
+    }
+}
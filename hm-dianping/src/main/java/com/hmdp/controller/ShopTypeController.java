@@ -1,15 +1,18 @@
 package com.hmdp.controller;
 
 
-import com.hmdp.dto.Result;
-import com.hmdp.entity.ShopType;
 import com.hmdp.service.IShopTypeService;
+import com.hmdp.utils.ShopTypeSnapshot;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestHeader;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RestController;
 
 import javax.annotation.Resource;
-import java.util.List;
 
 /**
  * <p>
@@ -25,12 +28,43 @@ public class ShopTypeController {
     @Resource
     private IShopTypeService typeService;
 
+    /**
+     * 查询商铺类型列表，直接返回快照中序列化好的响应体
+     * 请求头If-None-Match匹配快照的ETag时返回304
+     */
     @GetMapping("list")
-    public Result queryTypeList() {
-        List<ShopType> typeList = typeService
-                .query().orderByAsc("sort").list();
-        return Result.ok(typeList);
-        // return typeService.queryTypeList();
+    public ResponseEntity<byte[]> queryTypeList(
+            @RequestHeader(value = HttpHeaders.IF_NONE_MATCH, required = false) String ifNoneMatch) {
+        ShopTypeSnapshot snapshot = typeService.queryTypeSnapshot();
+        if (etagMatches(ifNoneMatch, snapshot.getEtag())) {
+            return ResponseEntity.status(HttpStatus.NOT_MODIFIED).eTag(snapshot.getEtag()).build();
+        }
+        return ResponseEntity.ok()
+                .eTag(snapshot.getEtag())
+                .contentType(MediaType.APPLICATION_JSON)
+                .body(snapshot.getBody());
+    }
+
+    /**
+     * 按RFC 7232弱比较判断If-None-Match是否匹配：*匹配任意ETag，多个ETag以逗号分隔，忽略W/前缀
+     */
+    static boolean etagMatches(String ifNoneMatch, String etag) {
+        if (ifNoneMatch == null) {
+            return false;
+        }
+        if ("*".equals(ifNoneMatch.trim())) {
+            return true;
+        }
+        String target = stripWeak(etag);
+        for (String candidate : ifNoneMatch.split(",")) {
+            if (stripWeak(candidate.trim()).equals(target)) {
+                return true;
+            }
+        }
+        return false;
+    }
 
+    private static String stripWeak(String etag) {
+        return etag.startsWith("W/") ? etag.substring(2) : etag;
     }
 }
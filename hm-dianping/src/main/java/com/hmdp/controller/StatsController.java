@@ -0,0 +1,98 @@
+package com.hmdp.controller;
+
+
+import cn.hutool.core.util.StrUtil;
+import com.hmdp.dto.Result;
+import com.hmdp.utils.ImageThumbnailer;
+import com.hmdp.utils.PageCountInterceptor;
+import com.hmdp.utils.UvStats;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+
+import javax.annotation.Resource;
+import java.time.LocalDate;
+import java.time.YearMonth;
+import java.time.format.DateTimeParseException;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * <p>
+ * 运营统计
+ * </p>
+ */
+@RestController
+@RequestMapping("/admin/stats")
+public class StatsController {
+
+    @Resource
+    private UvStats uvStats;
+    @Resource
+    private ImageThumbnailer imageThumbnailer;
+    @Resource
+    private PageCountInterceptor pageCountInterceptor;
+
+    /**
+     * 查询商铺或博文的独立访客数
+     * @param type shop或blog
+     * @param id 商铺或博文id
+     * @param period day、week、month
+     * @param date 统计日期yyyy-MM-dd，周、月统计取该日期所在的周、月，为空时为今天
+     */
+    @GetMapping("/uv")
+    public Result queryUv(
+            @RequestParam("type") String type,
+            @RequestParam("id") Long id,
+            @RequestParam(value = "period", defaultValue = "day") String period,
+            @RequestParam(value = "date", required = false) String date) {
+        UvStats.Target target = UvStats.Target.of(type);
+        if (target == null) {
+            return Result.fail("不支持的统计类型");
+        }
+        LocalDate day;
+        try {
+            day = StrUtil.isBlank(date) ? LocalDate.now() : LocalDate.parse(date);
+        } catch (DateTimeParseException e) {
+            return Result.fail("日期格式应为yyyy-MM-dd");
+        }
+        long uv;
+        switch (period) {
+            case "day":
+                uv = uvStats.countDay(target, id, day);
+                break;
+            case "week":
+                uv = uvStats.countWeek(target, id, day);
+                break;
+            case "month":
+                uv = uvStats.countMonth(target, id, YearMonth.from(day));
+                break;
+            default:
+                return Result.fail("不支持的统计周期");
+        }
+        Map<String, Object> result = new HashMap<>(8);
+        result.put("type", type);
+        result.put("id", id);
+        result.put("period", period);
+        result.put("date", day.toString());
+        result.put("uv", uv);
+        return Result.ok(result);
+    }
+
+    /**
+     * 缩略图队列长度与处理耗时
+     */
+    @GetMapping("/thumbnails")
+    public Result queryThumbnailStats() {
+        return Result.ok(imageThumbnailer.stats());
+    }
+
+    /**
+     * 分页查询各种总数统计方式的次数，本统计周期内
+     */
+    @GetMapping("/page-count")
+    public Result queryPageCountStats() {
+        return Result.ok(pageCountInterceptor.stats());
+    }
+}
@@ -1,33 +1,39 @@
 package com.hmdp.controller;
 
 import cn.hutool.core.io.FileUtil;
-import cn.hutool.core.util.StrUtil;
 import com.hmdp.dto.Result;
+import com.hmdp.utils.ImageStore;
 import com.hmdp.utils.SystemConstants;
+import com.hmdp.utils.UserHolder;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.web.bind.annotation.*;
 import org.springframework.web.multipart.MultipartFile;
 
+import javax.annotation.Resource;
 import java.io.File;
 import java.io.IOException;
-import java.util.UUID;
+import java.util.regex.Pattern;
 
 @Slf4j
 @RestController
 @RequestMapping("upload")
 public class UploadController {
 
+    /**
+     * 之前的文件名：/blogs/<0-15>/<0-15>/<uuid>.<后缀>
+     */
+    private static final Pattern LEGACY_NAME = Pattern.compile(
+            "^/blogs/\\d{1,2}/\\d{1,2}/[0-9a-f]{8}-[0-9a-f]{4}-[0-9a-f]{4}-[0-9a-f]{4}-[0-9a-f]{12}\\.[0-9A-Za-z]{1,10}$");
+
+    @Resource
+    private ImageStore imageStore;
+
     @PostMapping("blog")
     public Result uploadImage(@RequestParam("file") MultipartFile image) {
         try {
-            // 获取原始文件名称
-            String originalFilename = image.getOriginalFilename();
-            // 生成新文件名
-            String fileName = createNewFileName(originalFilename);
-            // 保存文件
-            image.transferTo(new File(SystemConstants.IMAGE_UPLOAD_DIR, fileName));
+            // 按内容哈希保存，相同的图片只保存一份
+            String fileName = imageStore.save(image, UserHolder.getUser().getId());
             // 返回结果
-            log.debug("文件上传成功，{}", fileName);
             return Result.ok(fileName);
         } catch (IOException e) {
             throw new RuntimeException("文件上传失败", e);
@@ -36,6 +42,21 @@ public class UploadController {
 
     @GetMapping("/blog/delete")
     public Result deleteBlogImg(@RequestParam("name") String filename) {
+        if (ImageStore.isContentName(filename)) {
+            // 只能释放自己上传的引用，所有上传者都释放后才删除文件
+            try {
+                if (!imageStore.release(filename, UserHolder.getUser().getId())) {
+                    return Result.fail("只能删除自己上传的图片");
+                }
+            } catch (IOException e) {
+                throw new RuntimeException("文件删除失败", e);
+            }
+            return Result.ok();
+        }
+        // 之前按UUID保存的文件，只允许删除上传目录下符合原命名规则的文件
+        if (!LEGACY_NAME.matcher(filename).matches()) {
+            return Result.fail("错误的文件名称");
+        }
         File file = new File(SystemConstants.IMAGE_UPLOAD_DIR, filename);
         if (file.isDirectory()) {
             return Result.fail("错误的文件名称");
@@ -43,21 +64,4 @@ public class UploadController {
         FileUtil.del(file);
         return Result.ok();
     }
-
-    private String createNewFileName(String originalFilename) {
-        // 获取后缀
-        String suffix = StrUtil.subAfter(originalFilename, ".", true);
-        // 生成目录
-        String name = UUID.randomUUID().toString();
-        int hash = name.hashCode();
-        int d1 = hash & 0xF;
-        int d2 = (hash >> 4) & 0xF;
-        // 判断目录是否存在
-        File dir = new File(SystemConstants.IMAGE_UPLOAD_DIR, StrUtil.format("/blogs/{}/{}", d1, d2));
-        if (!dir.exists()) {
-            dir.mkdirs();
-        }
-        // 生成文件名
-        return StrUtil.format("/blogs/{}/{}/{}.{}", d1, d2, name, suffix);
-    }
 }
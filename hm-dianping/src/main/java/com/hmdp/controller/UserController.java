@@ -7,11 +7,13 @@ import com.hmdp.dto.UserDTO;
 import com.hmdp.entity.UserInfo;
 import com.hmdp.service.IUserInfoService;
 import com.hmdp.service.IUserService;
+import com.hmdp.utils.ClientIps;
 import com.hmdp.utils.UserHolder;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.web.bind.annotation.*;
 
 import javax.annotation.Resource;
+import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpSession;
 
 /**
@@ -37,8 +39,8 @@ public class UserController {
      * 发送手机验证码
      */
     @PostMapping("code")
-    public Result sendCode(@RequestParam("phone") String phone, HttpSession session) {
-        return userService.sendCode(phone,session);
+    public Result sendCode(@RequestParam("phone") String phone, HttpServletRequest request, HttpSession session) {
+        return userService.sendCode(phone, ClientIps.resolve(request), session);
     }
 
     /**
@@ -67,6 +69,31 @@ public class UserController {
         return Result.ok(user);
     }
 
+    @PostMapping("/sign")
+    public Result sign(){
+        return userService.sign();
+    }
+
+    @GetMapping("/sign/count")
+    public Result signCount(){
+        return userService.signCount();
+    }
+
+    @GetMapping("/sign/month")
+    public Result signOfMonth(@RequestParam(value = "month", required = false) String month){
+        return userService.signOfMonth(month);
+    }
+
+    @GetMapping("/rank/credits")
+    public Result queryCreditRank(@RequestParam(value = "current", defaultValue = "1") Integer current){
+        return userInfoService.queryCreditRank(current);
+    }
+
+    @GetMapping("/rank/credits/me")
+    public Result queryMyCreditRank(){
+        return userInfoService.queryMyCreditRank();
+    }
+
     @GetMapping("/info/{id}")
     public Result info(@PathVariable("id") Long userId){
         // 查询详情
@@ -0,0 +1,30 @@
+package com.hmdp.dto;
+
+import lombok.Data;
+
+import java.time.LocalDateTime;
+
+/**
+ * 博文列表项，不包含正文
+ */
+@Data
+public class BlogSummaryDTO {
+    private Long id;
+    private Long shopId;
+    private Long userId;
+    private String icon;
+    private String name;
+    private Boolean isLike;
+    private String title;
+    /**
+     * 只有第一张图片，字段名与博文保持一致，前端按逗号分隔取首图的逻辑不用改
+     */
+    private String images;
+    /**
+     * 正文摘要
+     */
+    private String excerpt;
+    private Integer liked;
+    private Integer comments;
+    private LocalDateTime createTime;
+}
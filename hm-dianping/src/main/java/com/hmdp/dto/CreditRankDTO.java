@@ -0,0 +1,15 @@
+package com.hmdp.dto;
+
+import lombok.Data;
+
+@Data
+public class CreditRankDTO {
+    /**
+     * 名次，从1开始
+     */
+    private Long rank;
+    private Long userId;
+    private String nickName;
+    private String icon;
+    private Integer credits;
+}
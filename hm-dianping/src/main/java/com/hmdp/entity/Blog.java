@@ -71,6 +71,11 @@ public class Blog implements Serializable {
      */
     private String content;
 
+    /**
+     * 正文摘要，保存时由正文截取，列表只查询摘要不查询正文
+     */
+    private String excerpt;
+
     /**
      * 点赞数量
      */
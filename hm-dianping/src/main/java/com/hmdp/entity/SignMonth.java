@@ -0,0 +1,37 @@
+package com.hmdp.entity;
+
+import com.baomidou.mybatisplus.annotation.TableName;
+import lombok.Data;
+import lombok.EqualsAndHashCode;
+import lombok.experimental.Accessors;
+
+import java.io.Serializable;
+
+/**
+ * <p>
+ * 归档的月度签到记录，一个用户一个月一行
+ * </p>
+ */
+@Data
+@EqualsAndHashCode(callSuper = false)
+@Accessors(chain = true)
+@TableName("tb_sign_month")
+public class SignMonth implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * 用户id
+     */
+    private Long userId;
+
+    /**
+     * 签到的年月，例如202112
+     */
+    private Integer month;
+
+    /**
+     * 当月签到位图，与redis中BITFIELD GET u<当月天数> 0的结果相同，最高位为1号
+     */
+    private Integer bits;
+}
@@ -2,6 +2,9 @@ package com.hmdp.mapper;
 
 import com.hmdp.entity.BlogComments;
 import com.baomidou.mybatisplus.core.mapper.BaseMapper;
+import org.apache.ibatis.annotations.Param;
+
+import java.util.List;
 
 /**
  * <p>
@@ -13,4 +16,11 @@ import com.baomidou.mybatisplus.core.mapper.BaseMapper;
  */
 public interface BlogCommentsMapper extends BaseMapper<BlogComments> {
 
+    /**
+     * 查询每条一级评论下最早的若干条可见回复，每条一级评论各自走一次parent_id索引并LIMIT
+     * @param parentIds 一级评论id
+     * @param limit 每条一级评论最多返回的回复数
+     * @return 回复列表，按一级评论分组后各自按id正序
+     */
+    List<BlogComments> listReplyPreviews(@Param("parentIds") List<Long> parentIds, @Param("limit") int limit);
 }
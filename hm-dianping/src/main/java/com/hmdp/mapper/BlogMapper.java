@@ -2,6 +2,10 @@ package com.hmdp.mapper;
 
 import com.hmdp.entity.Blog;
 import com.baomidou.mybatisplus.core.mapper.BaseMapper;
+import com.hmdp.utils.PageCount;
+import org.apache.ibatis.annotations.Param;
+
+import java.util.Map;
 
 /**
  * <p>
@@ -11,6 +15,13 @@ import com.baomidou.mybatisplus.core.mapper.BaseMapper;
  * @author 虎哥
  * @since 2021-12-22
  */
+@PageCount(PageCount.Policy.NONE)
 public interface BlogMapper extends BaseMapper<Blog> {
 
+    /**
+     * 批量累加点赞数，一条UPDATE完成
+     * @param deltas 博文id -> 点赞增量
+     * @return 影响行数
+     */
+    int incrLiked(@Param("deltas") Map<Long, Long> deltas);
 }
@@ -2,6 +2,11 @@ package com.hmdp.mapper;
 
 import com.hmdp.entity.Shop;
 import com.baomidou.mybatisplus.core.mapper.BaseMapper;
+import com.hmdp.utils.PageCount;
+import org.apache.ibatis.annotations.Param;
+
+import java.util.Collection;
+import java.util.Map;
 
 /**
  * <p>
@@ -11,6 +16,14 @@ import com.baomidou.mybatisplus.core.mapper.BaseMapper;
  * @author 虎哥
  * @since 2021-12-22
  */
+@PageCount(PageCount.Policy.CACHED)
 public interface ShopMapper extends BaseMapper<Shop> {
 
+    /**
+     * 批量累加商铺计数，一条UPDATE完成
+     * @param deltas 列名 -> (商铺id -> 增量)，列名只能来自ShopCounters.Counter
+     * @param ids 涉及的商铺id
+     * @return 影响行数
+     */
+    int incrCounters(@Param("deltas") Map<String, Map<Long, Long>> deltas, @Param("ids") Collection<Long> ids);
 }
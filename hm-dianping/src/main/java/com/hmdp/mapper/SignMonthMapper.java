@@ -0,0 +1,22 @@
+package com.hmdp.mapper;
+
+import com.baomidou.mybatisplus.core.mapper.BaseMapper;
+import com.hmdp.entity.SignMonth;
+import org.apache.ibatis.annotations.Param;
+
+import java.util.List;
+
+/**
+ * <p>
+ *  Mapper 接口
+ * </p>
+ */
+public interface SignMonthMapper extends BaseMapper<SignMonth> {
+
+    /**
+     * 批量写入月度签到，重复归档时覆盖
+     * @param signs 月度签到
+     * @return 影响行数
+     */
+    int upsertBatch(@Param("signs") List<SignMonth> signs);
+}
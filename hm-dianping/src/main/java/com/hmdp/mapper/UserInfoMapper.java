@@ -2,6 +2,9 @@ package com.hmdp.mapper;
 
 import com.hmdp.entity.UserInfo;
 import com.baomidou.mybatisplus.core.mapper.BaseMapper;
+import org.apache.ibatis.annotations.Param;
+
+import java.util.Collection;
 
 /**
  * <p>
@@ -13,4 +16,29 @@ import com.baomidou.mybatisplus.core.mapper.BaseMapper;
  */
 public interface UserInfoMapper extends BaseMapper<UserInfo> {
 
+    /**
+     * 原子地累加关注数和粉丝数，用户还没有tb_user_info记录时插入
+     * @param userId 用户id
+     * @param followeeDelta 关注数增量
+     * @param fansDelta 粉丝数增量
+     * @return 影响行数
+     */
+    int incrFollowCount(@Param("userId") Long userId,
+                        @Param("followeeDelta") int followeeDelta,
+                        @Param("fansDelta") int fansDelta);
+
+    /**
+     * 按tb_follow重新统计关注数和粉丝数，用户还没有tb_user_info记录时插入
+     * @param userIds 用户id
+     * @return 影响行数
+     */
+    int reconcileFollowCount(@Param("userIds") Collection<Long> userIds);
+
+    /**
+     * 原子地增减积分，用户还没有tb_user_info记录时插入，积分最低为0
+     * @param userId 用户id
+     * @param delta 积分变化
+     * @return 影响行数
+     */
+    int addCredits(@Param("userId") Long userId, @Param("delta") int delta);
 }
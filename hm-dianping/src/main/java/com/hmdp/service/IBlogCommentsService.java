@@ -1,5 +1,6 @@
 package com.hmdp.service;
 
+import com.hmdp.dto.Result;
 import com.hmdp.entity.BlogComments;
 import com.baomidou.mybatisplus.extension.service.IService;
 
@@ -13,4 +14,21 @@ import com.baomidou.mybatisplus.extension.service.IService;
  */
 public interface IBlogCommentsService extends IService<BlogComments> {
 
+    Result saveComment(BlogComments comment);
+
+    /**
+     * 分页查询博文的评论树
+     * @param blogId 博文id
+     * @param lastId 上一页最后一条一级评论的id，第一页传null
+     * @return 一级评论列表，每条评论带有最早的几条回复
+     */
+    Result queryCommentTree(Long blogId, Long lastId);
+
+    /**
+     * 分页查询一级评论下的回复
+     * @param parentId 一级评论id
+     * @param lastId 上一页最后一条回复的id，第一页传null
+     * @return 回复列表，按时间正序
+     */
+    Result queryReplies(Long parentId, Long lastId);
 }
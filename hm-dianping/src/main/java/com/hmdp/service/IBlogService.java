@@ -1,8 +1,11 @@
 package com.hmdp.service;
 
+import com.hmdp.dto.Result;
 import com.hmdp.entity.Blog;
 import com.baomidou.mybatisplus.extension.service.IService;
 
+import java.util.List;
+
 /**
  * <p>
  *  服务类
@@ -13,4 +16,61 @@ import com.baomidou.mybatisplus.extension.service.IService;
  */
 public interface IBlogService extends IService<Blog> {
 
+    Result saveBlog(Blog blog);
+
+    /**
+     * 热榜分页
+     * @param cursor 游标，为null时按current页码分页，空串表示游标分页的第一页
+     */
+    Result queryHotBlog(Integer current, String cursor);
+
+    /**
+     * 查询当前用户的博文
+     * @param cursor 游标，为null时按current页码分页，空串表示游标分页的第一页
+     */
+    Result queryMyBlog(Integer current, String cursor);
+
+    Result queryBlogOfFollow(Long max, Integer offset);
+
+    Result queryBlogById(Long id);
+
+    /**
+     * 查询最早点赞的几个用户
+     * @param id 博文id
+     * @return 按点赞先后排列的用户
+     */
+    Result queryBlogLikes(Long id);
+
+    /**
+     * 批量查询博文，优先走博文缓存
+     * @param ids 博文id
+     * @return 与ids顺序一致的博文，不存在的跳过
+     */
+    List<Blog> queryBlogsByIds(List<Long> ids);
+
+    Result likeBlog(Long id);
+
+    /**
+     * 博文新增一条评论：累加评论数并更新热榜
+     * @param id 博文id
+     */
+    void incrComments(Long id);
+
+    /**
+     * 在数据库点赞数的基础上叠加尚未刷库的点赞增量
+     * @param blogs 博文列表
+     */
+    void fillPendingLiked(List<Blog> blogs);
+
+    /**
+     * 批量填充当前用户是否点赞过，未登录时均为false
+     * @param blogs 博文列表
+     */
+    void fillIsLike(List<Blog> blogs);
+
+    /**
+     * 批量填充博文作者的昵称和头像
+     * @param blogs 博文列表
+     */
+    void fillBlogUsers(List<Blog> blogs);
 }
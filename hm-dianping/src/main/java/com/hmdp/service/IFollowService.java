@@ -2,6 +2,10 @@ package com.hmdp.service;
 
 import com.hmdp.entity.Follow;
 import com.baomidou.mybatisplus.extension.service.IService;
+import com.hmdp.dto.Result;
+
+import java.util.List;
+import java.util.Set;
 
 /**
  * <p>
@@ -13,4 +17,24 @@ import com.baomidou.mybatisplus.extension.service.IService;
  */
 public interface IFollowService extends IService<Follow> {
 
+    Result follow(Long followUserId, Boolean isFollow);
+
+    Result isFollow(Long followUserId);
+
+    /**
+     * 批量判断是否关注了一页作者
+     * @param followUserIds 作者id
+     * @return 作者id -> 是否关注
+     */
+    Result isFollowBatch(List<Long> followUserIds);
+
+    Result followCommons(Long id);
+
+    /**
+     * 用户的关注与指定集合的交集，例如共同关注、关注的大V
+     * @param userId 用户id
+     * @param setKey 另一个用户id集合的key
+     * @return 交集中的用户id
+     */
+    Set<Long> queryFolloweeIdsIn(Long userId, String setKey);
 }
@@ -3,6 +3,7 @@ package com.hmdp.service;
 import com.hmdp.dto.Result;
 import com.hmdp.entity.Shop;
 import com.baomidou.mybatisplus.extension.service.IService;
+import com.hmdp.utils.ShopCounters;
 
 /**
  * <p>
@@ -16,7 +17,37 @@ public interface IShopService extends IService<Shop> {
 
     Result queryById(Long id);
 
+    Result saveShop(Shop shop);
+
     Result update(Shop shop);
 
+    /**
+     * 按类型查询商铺
+     * @param cursor 游标，为null时按current页码分页，空串表示游标分页的第一页
+     * @param x 经度，与y同时传入时按距离分页查询附近商铺
+     * @param y 纬度
+     */
+    Result queryShopByType(Integer typeId, Integer current, String cursor, Double x, Double y);
+
+    /**
+     * 按名称关键字查询商铺
+     * @param cursor 游标，为null时按current页码分页，空串表示游标分页的第一页
+     */
+    Result queryShopByName(String name, Integer current, String cursor);
+
+    /**
+     * 商铺名称前缀联想
+     * @param prefix 名称前缀
+     * @param limit 数量
+     * @return 按销量、评分排序的商铺id和名称
+     */
+    Result suggestShop(String prefix, Integer limit);
 
+    /**
+     * 累加商铺计数，先在内存和redis中聚合，定时批量刷库
+     * @param shopId 商铺id
+     * @param counter 计数类型
+     * @param delta 增量
+     */
+    void incrCounter(Long shopId, ShopCounters.Counter counter, long delta);
 }
@@ -3,6 +3,7 @@ package com.hmdp.service;
 import com.hmdp.dto.Result;
 import com.hmdp.entity.ShopType;
 import com.baomidou.mybatisplus.extension.service.IService;
+import com.hmdp.utils.ShopTypeSnapshot;
 
 /**
  * <p>
@@ -14,6 +15,25 @@ import com.baomidou.mybatisplus.extension.service.IService;
  */
 public interface IShopTypeService extends IService<ShopType> {
 
-
     Result queryTypeList();
+
+    /**
+     * 当前的商铺类型快照
+     */
+    ShopTypeSnapshot queryTypeSnapshot();
+
+    /**
+     * 新增商铺类型，提交后使缓存失效
+     */
+    Result saveShopType(ShopType shopType);
+
+    /**
+     * 修改商铺类型，提交后使缓存失效
+     */
+    Result updateShopType(ShopType shopType);
+
+    /**
+     * 商铺类型变化后调用：清除redis缓存并递增版本号，各实例的快照随之刷新
+     */
+    void evictTypeList();
 }
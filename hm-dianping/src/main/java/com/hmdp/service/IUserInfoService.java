@@ -1,5 +1,6 @@
 package com.hmdp.service;
 
+import com.hmdp.dto.Result;
 import com.hmdp.entity.UserInfo;
 import com.baomidou.mybatisplus.extension.service.IService;
 
@@ -13,4 +14,25 @@ import com.baomidou.mybatisplus.extension.service.IService;
  */
 public interface IUserInfoService extends IService<UserInfo> {
 
+    /**
+     * 增减用户积分，并同步积分榜
+     * @param userId 用户id
+     * @param delta 积分变化，扣减传负数，积分最低为0
+     */
+    void addCredits(Long userId, int delta);
+
+    /**
+     * 分页查询积分榜
+     */
+    Result queryCreditRank(Integer current);
+
+    /**
+     * 查询当前用户的名次及前后的用户
+     */
+    Result queryMyCreditRank();
+
+    /**
+     * 从tb_user_info全量重建积分榜
+     */
+    void rebuildCreditRanking();
 }
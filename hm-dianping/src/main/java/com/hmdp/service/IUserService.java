@@ -3,9 +3,12 @@ package com.hmdp.service;
 import com.baomidou.mybatisplus.extension.service.IService;
 import com.hmdp.dto.LoginFormDTO;
 import com.hmdp.dto.Result;
+import com.hmdp.dto.UserDTO;
 import com.hmdp.entity.User;
 
 import javax.servlet.http.HttpSession;
+import java.util.Collection;
+import java.util.Map;
 
 /**
  * <p>
@@ -18,7 +21,38 @@ import javax.servlet.http.HttpSession;
 public interface IUserService extends IService<User> {
 
 
-    Result sendCode(String phone, HttpSession session);
+    Result sendCode(String phone, String ip, HttpSession session);
 
     Result login(LoginFormDTO loginForm, HttpSession session);
+
+    /**
+     * 根据id查询用户，优先走用户缓存
+     * @param id 用户id
+     * @return 用户信息，不存在返回null
+     */
+    UserDTO queryUserDTO(Long id);
+
+    /**
+     * 批量查询用户，一次MGET读取用户缓存，未命中的一次listByIds查库并回写缓存
+     * @param ids 用户id集合
+     * @return 用户id -> 用户信息，不存在的用户不在结果中
+     */
+    Map<Long, UserDTO> queryUserDTOs(Collection<Long> ids);
+
+    /**
+     * 当前用户今日签到
+     */
+    Result sign();
+
+    /**
+     * 当前用户截至今天的连续签到天数，今天还没签到时截至昨天
+     */
+    Result signCount();
+
+    /**
+     * 当前用户某月的签到情况
+     * @param month 月份，格式yyyyMM，为空时查询本月
+     * @return 签到天数和签到的日期
+     */
+    Result signOfMonth(String month);
 }
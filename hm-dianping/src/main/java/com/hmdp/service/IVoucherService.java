@@ -16,5 +16,10 @@ public interface IVoucherService extends IService<Voucher> {
 
     Result queryVoucherOfShop(Long shopId);
 
+    /**
+     * 新增普通券，并清除店铺的优惠券列表缓存
+     */
+    void addVoucher(Voucher voucher);
+
     void addSeckillVoucher(Voucher voucher);
 }
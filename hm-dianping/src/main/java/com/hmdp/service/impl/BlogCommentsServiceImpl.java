@@ -1,11 +1,36 @@
 package com.hmdp.service.impl;
 
+import cn.hutool.json.JSONUtil;
+import com.hmdp.dto.Result;
+import com.hmdp.dto.UserDTO;
 import com.hmdp.entity.BlogComments;
 import com.hmdp.mapper.BlogCommentsMapper;
 import com.hmdp.service.IBlogCommentsService;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
+import com.hmdp.service.IBlogService;
+import com.hmdp.service.IUserService;
+import com.hmdp.utils.BlogHotRanking;
+import com.hmdp.utils.SystemConstants;
+import com.hmdp.utils.UserHolder;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
 import org.springframework.stereotype.Service;
 
+import javax.annotation.Resource;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import static com.hmdp.utils.RedisConstants.CACHE_BLOG_COMMENTS_KEY;
+import static com.hmdp.utils.RedisConstants.CACHE_BLOG_COMMENTS_TTL;
+
 /**
  * <p>
  *  服务实现类
@@ -17,4 +42,158 @@ import org.springframework.stereotype.Service;
 @Service
 public class BlogCommentsServiceImpl extends ServiceImpl<BlogCommentsMapper, BlogComments> implements IBlogCommentsService {
 
+    /**
+     * 热榜前多少名的博文缓存评论首页
+     */
+    private static final long HOT_CACHE_RANK = 100;
+    /**
+     * 每条一级评论随评论树返回的回复数量上限
+     */
+    private static final int REPLY_PREVIEW_SIZE = 3;
+    /**
+     * 新评论的状态：正常
+     */
+    private static final boolean STATUS_NORMAL = false;
+    /**
+     * 可见的评论：状态为空（历史数据）或不是禁止查看
+     */
+    private static final String VISIBLE = "(status IS NULL OR status <> 2)";
+
+    private static final DefaultRedisScript<Long> COMMENT_CACHE_SCRIPT;
+    static {
+        COMMENT_CACHE_SCRIPT = new DefaultRedisScript<>();
+        COMMENT_CACHE_SCRIPT.setLocation(new ClassPathResource("comment_cache.lua"));
+        COMMENT_CACHE_SCRIPT.setResultType(Long.class);
+    }
+
+    private static final DefaultRedisScript<Long> COMMENT_PAGE_REBUILD_SCRIPT;
+    static {
+        COMMENT_PAGE_REBUILD_SCRIPT = new DefaultRedisScript<>();
+        COMMENT_PAGE_REBUILD_SCRIPT.setLocation(new ClassPathResource("comment_page_rebuild.lua"));
+        COMMENT_PAGE_REBUILD_SCRIPT.setResultType(Long.class);
+    }
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+    @Resource
+    private IUserService userService;
+    @Resource
+    private IBlogService blogService;
+    @Resource
+    private BlogHotRanking blogHotRanking;
+
+    @Override
+    public Result saveComment(BlogComments comment) {
+        if (comment.getBlogId() == null) {
+            return Result.fail("博文id不能为空");
+        }
+        UserDTO user = UserHolder.getUser();
+        // 服务端维护的字段不接受客户端传值
+        comment.setId(null);
+        comment.setLiked(0);
+        comment.setStatus(STATUS_NORMAL);
+        comment.setReplies(null);
+        comment.setUserId(user.getId());
+        if (comment.getParentId() == null) {
+            comment.setParentId(0L);
+        }
+        if (comment.getAnswerId() == null) {
+            comment.setAnswerId(comment.getParentId());
+        }
+        if (comment.getParentId() != 0) {
+            // 回复必须挂在同一篇博文的一级评论下
+            BlogComments parent = getById(comment.getParentId());
+            if (parent == null || !parent.getBlogId().equals(comment.getBlogId()) || parent.getParentId() != 0) {
+                return Result.fail("回复的评论不存在");
+            }
+        }
+        save(comment);
+        blogService.incrComments(comment.getBlogId());
+        // 增量更新评论首页缓存
+        comment.setName(user.getNickName());
+        comment.setIcon(user.getIcon());
+        comment.setCreateTime(LocalDateTime.now());
+        stringRedisTemplate.execute(COMMENT_CACHE_SCRIPT,
+                Collections.singletonList(CACHE_BLOG_COMMENTS_KEY + comment.getBlogId()),
+                comment.getParentId().toString(), JSONUtil.toJsonStr(comment),
+                String.valueOf(SystemConstants.MAX_PAGE_SIZE), String.valueOf(REPLY_PREVIEW_SIZE));
+        return Result.ok(comment.getId());
+    }
+
+    @Override
+    public Result queryCommentTree(Long blogId, Long lastId) {
+        // 热门博文的评论首页走缓存
+        boolean cacheable = lastId == null && isHot(blogId);
+        String key = CACHE_BLOG_COMMENTS_KEY + blogId;
+        if (cacheable) {
+            List<String> cached = stringRedisTemplate.opsForList().range(key, 0, -1);
+            if (cached != null && !cached.isEmpty()) {
+                return Result.ok(cached.stream()
+                        .map(json -> JSONUtil.toBean(json, BlogComments.class)).collect(Collectors.toList()));
+            }
+        }
+        // 1. 一级评论按id倒序，用上一页最后一条的id做游标，不使用OFFSET
+        List<BlogComments> topComments = query()
+                .eq("blog_id", blogId).eq("parent_id", 0).apply(VISIBLE)
+                .lt(lastId != null, "id", lastId)
+                .orderByDesc("id")
+                .last("LIMIT " + SystemConstants.MAX_PAGE_SIZE)
+                .list();
+        if (topComments.isEmpty()) {
+            return Result.ok(Collections.emptyList());
+        }
+        // 2. 一次查询出这一页每条一级评论下最早的几条可见回复，其余回复通过queryReplies分页查看
+        List<Long> topIds = topComments.stream().map(BlogComments::getId).collect(Collectors.toList());
+        List<BlogComments> replies = getBaseMapper().listReplyPreviews(topIds, REPLY_PREVIEW_SIZE);
+        // 3. 内存中组装评论树
+        Map<Long, List<BlogComments>> repliesByParent = replies.stream()
+                .collect(Collectors.groupingBy(BlogComments::getParentId));
+        topComments.forEach(top -> top.setReplies(repliesByParent.getOrDefault(top.getId(), new ArrayList<>())));
+        // 4. 批量填充用户
+        Set<Long> userIds = new HashSet<>();
+        topComments.forEach(c -> userIds.add(c.getUserId()));
+        replies.forEach(c -> userIds.add(c.getUserId()));
+        Map<Long, UserDTO> users = userService.queryUserDTOs(userIds);
+        topComments.forEach(c -> fillUser(c, users));
+        replies.forEach(c -> fillUser(c, users));
+        if (cacheable) {
+            // 删除、写入、设置过期在一个脚本里完成，不会留下无过期时间或与新评论交错的半成品list
+            List<String> args = new ArrayList<>(topComments.size() + 1);
+            args.add(String.valueOf(TimeUnit.MINUTES.toSeconds(CACHE_BLOG_COMMENTS_TTL)));
+            topComments.forEach(c -> args.add(JSONUtil.toJsonStr(c)));
+            stringRedisTemplate.execute(COMMENT_PAGE_REBUILD_SCRIPT, Collections.singletonList(key), args.toArray());
+        }
+        return Result.ok(topComments);
+    }
+
+    @Override
+    public Result queryReplies(Long parentId, Long lastId) {
+        // 回复按id正序，用上一页最后一条的id做游标
+        List<BlogComments> replies = query()
+                .eq("parent_id", parentId).apply(VISIBLE)
+                .gt(lastId != null, "id", lastId)
+                .orderByAsc("id")
+                .last("LIMIT " + SystemConstants.MAX_PAGE_SIZE)
+                .list();
+        if (replies.isEmpty()) {
+            return Result.ok(Collections.emptyList());
+        }
+        Map<Long, UserDTO> users = userService.queryUserDTOs(
+                replies.stream().map(BlogComments::getUserId).collect(Collectors.toSet()));
+        replies.forEach(c -> fillUser(c, users));
+        return Result.ok(replies);
+    }
+
+    private boolean isHot(Long blogId) {
+        Long rank = blogHotRanking.rank(blogId);
+        return rank != null && rank < HOT_CACHE_RANK;
+    }
+
+    private static void fillUser(BlogComments comment, Map<Long, UserDTO> users) {
+        UserDTO user = users.get(comment.getUserId());
+        if (user != null) {
+            comment.setName(user.getNickName());
+            comment.setIcon(user.getIcon());
+        }
+    }
 }
@@ -1,11 +1,59 @@
 package com.hmdp.service.impl;
 
+import cn.hutool.core.bean.BeanUtil;
+import cn.hutool.core.collection.CollUtil;
+import cn.hutool.core.util.BooleanUtil;
+import cn.hutool.core.util.StrUtil;
+import cn.hutool.http.HtmlUtil;
+import com.baomidou.mybatisplus.extension.plugins.pagination.Page;
+import com.hmdp.dto.BlogSummaryDTO;
+import com.hmdp.dto.CursorResult;
+import com.hmdp.dto.Result;
+import com.hmdp.dto.ScrollResult;
+import com.hmdp.dto.UserDTO;
 import com.hmdp.entity.Blog;
+import com.hmdp.entity.Follow;
 import com.hmdp.mapper.BlogMapper;
 import com.hmdp.service.IBlogService;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
+import com.hmdp.service.IFollowService;
+import com.hmdp.service.IShopService;
+import com.hmdp.service.IUserService;
+import com.hmdp.utils.BlogHotRanking;
+import com.hmdp.utils.CacheClient;
+import com.hmdp.utils.FeedBox;
+import com.hmdp.utils.PageCursor;
+import com.hmdp.utils.ShopCounters;
+import com.hmdp.utils.SystemConstants;
+import com.hmdp.utils.UserHolder;
+import com.hmdp.utils.UvStats;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.dao.DataAccessException;
+import org.springframework.data.redis.core.RedisOperations;
+import org.springframework.data.redis.core.SessionCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
 
+import javax.annotation.Resource;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static com.hmdp.utils.RedisConstants.*;
+
 /**
  * <p>
  *  服务实现类
@@ -14,7 +62,386 @@ import org.springframework.stereotype.Service;
  * @author 虎哥
  * @since 2021-12-22
  */
+@Slf4j
 @Service
 public class BlogServiceImpl extends ServiceImpl<BlogMapper, Blog> implements IBlogService {
 
+    @Resource
+    private IUserService userService;
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+    @Resource
+    private CacheClient cacheClient;
+    @Resource
+    private BlogHotRanking blogHotRanking;
+    @Resource
+    private IFollowService followService;
+    @Resource
+    private FeedBox feedBox;
+    @Resource
+    private IShopService shopService;
+    @Resource
+    private UvStats uvStats;
+
+    private static final int LIKE_FLUSH_BATCH_SIZE = 500;
+    private static final int BLOG_TOP_LIKERS = 5;
+    private static final int EXCERPT_LENGTH = 60;
+    /**
+     * 列表查询的列：不查正文，图片只取第一张
+     */
+    private static final String[] SUMMARY_COLUMNS = {"id", "shop_id", "user_id", "title",
+            "SUBSTRING_INDEX(images, ',', 1) AS images", "excerpt", "liked", "comments", "create_time"};
+
+    private static final DefaultRedisScript<Long> BLOG_LIKE_SCRIPT;
+    private static final DefaultRedisScript<Long> DELTA_SWAP_SCRIPT;
+    private static final DefaultRedisScript<Long> UNLOCK_SCRIPT;
+    static {
+        BLOG_LIKE_SCRIPT = new DefaultRedisScript<>();
+        BLOG_LIKE_SCRIPT.setLocation(new ClassPathResource("blog_like.lua"));
+        BLOG_LIKE_SCRIPT.setResultType(Long.class);
+        DELTA_SWAP_SCRIPT = new DefaultRedisScript<>();
+        DELTA_SWAP_SCRIPT.setLocation(new ClassPathResource("delta_swap.lua"));
+        DELTA_SWAP_SCRIPT.setResultType(Long.class);
+        UNLOCK_SCRIPT = new DefaultRedisScript<>();
+        UNLOCK_SCRIPT.setLocation(new ClassPathResource("unlock.lua"));
+        UNLOCK_SCRIPT.setResultType(Long.class);
+    }
+
+    @Override
+    public Result saveBlog(Blog blog) {
+        // 获取登录用户
+        UserDTO user = UserHolder.getUser();
+        blog.setUserId(user.getId());
+        blog.setExcerpt(excerptOf(blog.getContent()));
+        // 保存探店博文
+        save(blog);
+        // 新博文进入热榜
+        blogHotRanking.incr(blog.getId(), BlogHotRanking.CREATE_POINTS);
+        // 探店博文计入商铺评论数
+        if (blog.getShopId() != null) {
+            shopService.incrCounter(blog.getShopId(), ShopCounters.Counter.COMMENTS, 1);
+        }
+        // 推送给粉丝
+        publishToFollowers(blog);
+        // 返回id
+        return Result.ok(blog.getId());
+    }
+
+    private void publishToFollowers(Blog blog) {
+        Long authorId = blog.getUserId();
+        // 最多查出阈值数量的粉丝，查满说明是大V
+        List<Long> followerIds = followService.query().select("user_id").eq("follow_user_id", authorId)
+                .last("LIMIT " + FEED_BIG_V_FANS).list()
+                .stream().map(Follow::getUserId).collect(Collectors.toList());
+        if (followerIds.size() >= FEED_BIG_V_FANS) {
+            // 大V只写发件箱，由粉丝读取时拉取
+            feedBox.markBigV(authorId);
+            followerIds = Collections.emptyList();
+        }
+        feedBox.publish(authorId, blog.getId(), System.currentTimeMillis(), followerIds);
+    }
+
+    @Override
+    public Result queryBlogOfFollow(Long max, Integer offset) {
+        Long userId = UserHolder.getUser().getId();
+        // 需要拉取发件箱的大V：大V集合与我的关注集合的交集
+        Set<Long> pullAuthorIds = followService.queryFolloweeIdsIn(userId, FEED_BIG_V_KEY);
+        ScrollResult result = feedBox.scroll(userId, pullAuthorIds, max, offset, SystemConstants.MAX_PAGE_SIZE);
+        @SuppressWarnings("unchecked")
+        List<Blog> blogs = queryBlogSummariesByIds((List<Long>) result.getList());
+        fillBlogUsers(blogs);
+        fillPendingLiked(blogs);
+        fillIsLike(blogs);
+        result.setList(toSummaries(blogs));
+        return Result.ok(result);
+    }
+
+    @Override
+    public Result queryHotBlog(Integer current, String cursor) {
+        int size = SystemConstants.MAX_PAGE_SIZE;
+        long start;
+        if (cursor == null) {
+            start = (long) (current - 1) * size;
+        } else {
+            PageCursor last = PageCursor.decode(cursor);
+            start = last == null ? 0 : nextHotRank(last);
+        }
+        // 按排名从热榜中取出当前页的博文id
+        List<Long> ids = blogHotRanking.range(start, size);
+        if (ids.isEmpty() && blogHotRanking.isEmpty()) {
+            // 热榜丢失（首次启动或redis数据清空）时用数据库重建
+            rebuildHotRanking();
+            ids = blogHotRanking.range(start, size);
+        }
+        // 批量从缓存中查询博文摘要
+        List<Blog> records = queryBlogSummariesByIds(ids);
+        // 批量查询用户
+        fillBlogUsers(records);
+        fillPendingLiked(records);
+        fillIsLike(records);
+        if (cursor == null) {
+            return Result.ok(toSummaries(records));
+        }
+        String next = ids.size() < size ? null : PageCursor.encode(start + size, ids.get(ids.size() - 1));
+        return Result.ok(new CursorResult(toSummaries(records), next));
+    }
+
+    /**
+     * 热榜分值随时变化，优先从上一页最后一篇博文的当前排名之后继续，博文已出榜时退回游标中记录的排名
+     */
+    private long nextHotRank(PageCursor last) {
+        Long rank = blogHotRanking.rank(last.getId());
+        return rank != null ? rank + 1 : last.sortKeyAsLong();
+    }
+
+    @Override
+    public Result queryMyBlog(Integer current, String cursor) {
+        Long userId = UserHolder.getUser().getId();
+        List<Blog> records;
+        String next = null;
+        if (cursor == null) {
+            // 兼容旧客户端的页码分页
+            records = query().select(SUMMARY_COLUMNS).eq("user_id", userId)
+                    .page(new Page<>(current, SystemConstants.MAX_PAGE_SIZE)).getRecords();
+        } else {
+            // 按id倒序，WHERE id < 上一页最后一条，不需要OFFSET和COUNT
+            PageCursor last = PageCursor.decode(cursor);
+            records = query().select(SUMMARY_COLUMNS).eq("user_id", userId)
+                    .lt(last != null, "id", last == null ? null : last.getId())
+                    .orderByDesc("id")
+                    .last("LIMIT " + SystemConstants.MAX_PAGE_SIZE)
+                    .list();
+            if (records.size() == SystemConstants.MAX_PAGE_SIZE) {
+                next = PageCursor.encode(records.get(records.size() - 1).getId());
+            }
+        }
+        fillPendingLiked(records);
+        fillIsLike(records);
+        List<BlogSummaryDTO> summaries = toSummaries(records);
+        return cursor == null ? Result.ok(summaries) : Result.ok(new CursorResult(summaries, next));
+    }
+
+    @Override
+    public Result queryBlogById(Long id) {
+        // 单篇也走批量接口，未命中时同步查库回写，逻辑过期时返回旧数据并异步重建
+        List<Blog> blogs = queryBlogsByIds(Collections.singletonList(id));
+        if (blogs.isEmpty()) {
+            return Result.fail("博文不存在");
+        }
+        fillBlogUsers(blogs);
+        fillPendingLiked(blogs);
+        fillIsLike(blogs);
+        uvStats.record(UvStats.Target.BLOG, id);
+        return Result.ok(blogs.get(0));
+    }
+
+    @Override
+    public Result queryBlogLikes(Long id) {
+        // 按点赞时间取最早点赞的几个用户
+        Set<String> top = stringRedisTemplate.opsForZSet().range(BLOG_LIKED_KEY + id, 0, BLOG_TOP_LIKERS - 1);
+        if (CollUtil.isEmpty(top)) {
+            return Result.ok(Collections.emptyList());
+        }
+        List<Long> ids = top.stream().map(Long::valueOf).collect(Collectors.toList());
+        // 一次批量查询用户，再按点赞顺序排列
+        Map<Long, UserDTO> users = userService.queryUserDTOs(ids);
+        return Result.ok(ids.stream().map(users::get).filter(Objects::nonNull).collect(Collectors.toList()));
+    }
+
+    @Override
+    public List<Blog> queryBlogsByIds(List<Long> ids) {
+        return cacheClient.queryBatchWithLogicalExpire(CACHE_BLOG_KEY, ids, Blog.class,
+                missIds -> listByIds(missIds).stream().collect(Collectors.toMap(Blog::getId, Function.identity())),
+                CACHE_BLOG_TTL, TimeUnit.MINUTES);
+    }
+
+    /**
+     * 批量查询列表用的博文摘要，只有SUMMARY_COLUMNS中的列，与完整博文分开缓存
+     */
+    private List<Blog> queryBlogSummariesByIds(List<Long> ids) {
+        return cacheClient.queryBatchWithLogicalExpire(CACHE_BLOG_SUMMARY_KEY, ids, Blog.class,
+                missIds -> query().select(SUMMARY_COLUMNS).in("id", missIds).list()
+                        .stream().collect(Collectors.toMap(Blog::getId, Function.identity())),
+                CACHE_BLOG_TTL, TimeUnit.MINUTES);
+    }
+
+    private static List<BlogSummaryDTO> toSummaries(List<Blog> blogs) {
+        return blogs.stream().map(blog -> BeanUtil.copyProperties(blog, BlogSummaryDTO.class)).collect(Collectors.toList());
+    }
+
+    /**
+     * 去掉正文中的标签和多余空白，按字符（不拆开emoji）截取
+     */
+    static String excerptOf(String content) {
+        if (StrUtil.isBlank(content)) {
+            return "";
+        }
+        // 换行标签先换成空格，避免前后两段粘在一起
+        String text = HtmlUtil.cleanHtmlTag(content.replaceAll("(?i)<br\\s*/?>", " "))
+                .replaceAll("\\s+", " ").trim();
+        int length = text.codePointCount(0, text.length());
+        if (length <= EXCERPT_LENGTH) {
+            return text;
+        }
+        return text.substring(0, text.offsetByCodePoints(0, EXCERPT_LENGTH)) + "…";
+    }
+
+    private void rebuildHotRanking() {
+        Boolean locked = stringRedisTemplate.opsForValue().setIfAbsent(LOCK_BLOG_HOT_KEY, "1", 60, TimeUnit.SECONDS);
+        if (!BooleanUtil.isTrue(locked)) {
+            return;
+        }
+        try {
+            // 只取最新的一批博文，更早的博文热度已经衰减得可以忽略
+            List<Blog> blogs = query().select("id", "liked", "comments", "create_time")
+                    .orderByDesc("id").last("LIMIT " + BlogHotRanking.MAX_SIZE).list();
+            blogHotRanking.rebuild(blogs);
+        } finally {
+            stringRedisTemplate.delete(LOCK_BLOG_HOT_KEY);
+        }
+    }
+
+    @Override
+    public Result likeBlog(Long id) {
+        Long userId = UserHolder.getUser().getId();
+        // 点赞记录写入zset，点赞数增量累加到hash，由定时任务批量刷库
+        Long liked = stringRedisTemplate.execute(BLOG_LIKE_SCRIPT,
+                Arrays.asList(BLOG_LIKED_KEY + id, BLOG_LIKE_DELTA_KEY),
+                userId.toString(), String.valueOf(System.currentTimeMillis()), id.toString());
+        // 更新热榜，取消点赞时撤销分值
+        blogHotRanking.incr(id, liked != null && liked == 1 ? BlogHotRanking.LIKE_POINTS : -BlogHotRanking.LIKE_POINTS);
+        return Result.ok();
+    }
+
+    @Override
+    public void incrComments(Long id) {
+        update().setSql("comments = IFNULL(comments, 0) + 1").eq("id", id).update();
+        stringRedisTemplate.delete(Arrays.asList(CACHE_BLOG_KEY + id, CACHE_BLOG_SUMMARY_KEY + id));
+        blogHotRanking.incr(id, BlogHotRanking.COMMENT_POINTS);
+    }
+
+    @Override
+    public void fillPendingLiked(List<Blog> blogs) {
+        if (blogs.isEmpty()) {
+            return;
+        }
+        List<Object> fields = blogs.stream().map(blog -> blog.getId().toString()).collect(Collectors.toList());
+        // 累加中和刷库中的增量都还没有写入数据库，一个管道同时取出
+        List<Object> results = stringRedisTemplate.executePipelined(new SessionCallback<Object>() {
+            @Override
+            @SuppressWarnings("unchecked")
+            public Object execute(RedisOperations operations) throws DataAccessException {
+                operations.opsForHash().multiGet(BLOG_LIKE_DELTA_KEY, fields);
+                operations.opsForHash().multiGet(BLOG_LIKE_FLUSHING_KEY, fields);
+                return null;
+            }
+        });
+        List<?> pending = (List<?>) results.get(0);
+        List<?> flushing = (List<?>) results.get(1);
+        for (int i = 0; i < blogs.size(); i++) {
+            Blog blog = blogs.get(i);
+            long liked = blog.getLiked() == null ? 0 : blog.getLiked();
+            liked += parseDelta(pending.get(i)) + parseDelta(flushing.get(i));
+            blog.setLiked((int) Math.max(liked, 0));
+        }
+    }
+
+    @Override
+    public void fillIsLike(List<Blog> blogs) {
+        UserDTO user = UserHolder.getUser();
+        if (user == null || blogs.isEmpty()) {
+            // 未登录用户一律视为未点赞
+            blogs.forEach(blog -> blog.setIsLike(false));
+            return;
+        }
+        String userId = user.getId().toString();
+        // 整页博文的点赞状态用一个管道查询ZSCORE
+        List<Object> scores = stringRedisTemplate.executePipelined(new SessionCallback<Object>() {
+            @Override
+            @SuppressWarnings("unchecked")
+            public Object execute(RedisOperations operations) throws DataAccessException {
+                for (Blog blog : blogs) {
+                    operations.opsForZSet().score(BLOG_LIKED_KEY + blog.getId(), userId);
+                }
+                return null;
+            }
+        });
+        for (int i = 0; i < blogs.size(); i++) {
+            blogs.get(i).setIsLike(scores.get(i) != null);
+        }
+    }
+
+    private static long parseDelta(Object value) {
+        return value == null ? 0 : Long.parseLong(value.toString());
+    }
+
+    /**
+     * 点赞数增量刷库
+     * 先把累加中的hash整体改名为刷库中的hash，新的点赞继续累加到新hash，
+     * 每批UPDATE成功后删除对应的字段，失败时剩余字段留到下次重试
+     */
+    @Scheduled(fixedDelay = 10000)
+    public void flushLikeDeltas() {
+        // 多实例部署时只有一个实例刷库，锁的值为本次执行的标识，刷库超时后不会误删别人的锁
+        String token = UUID.randomUUID().toString();
+        Boolean locked = stringRedisTemplate.opsForValue()
+                .setIfAbsent(LOCK_BLOG_LIKE_FLUSH_KEY, token, 60, TimeUnit.SECONDS);
+        if (!BooleanUtil.isTrue(locked)) {
+            return;
+        }
+        try {
+            Long needFlush = stringRedisTemplate.execute(DELTA_SWAP_SCRIPT,
+                    Arrays.asList(BLOG_LIKE_DELTA_KEY, BLOG_LIKE_FLUSHING_KEY));
+            if (needFlush == null || needFlush == 0) {
+                return;
+            }
+            Map<Object, Object> entries = stringRedisTemplate.opsForHash().entries(BLOG_LIKE_FLUSHING_KEY);
+            List<Object> fields = new ArrayList<>(entries.keySet());
+            for (List<Object> batch : CollUtil.split(fields, LIKE_FLUSH_BATCH_SIZE)) {
+                Map<Long, Long> deltas = new HashMap<>(batch.size() * 2);
+                for (Object field : batch) {
+                    long delta = parseDelta(entries.get(field));
+                    if (delta != 0) {
+                        deltas.put(Long.valueOf(field.toString()), delta);
+                    }
+                }
+                if (!deltas.isEmpty()) {
+                    getBaseMapper().incrLiked(deltas);
+                }
+                // 删除已刷库的增量，同时删除博文缓存，避免缓存中的旧点赞数叠加不到增量
+                stringRedisTemplate.executePipelined(new SessionCallback<Object>() {
+                    @Override
+                    @SuppressWarnings("unchecked")
+                    public Object execute(RedisOperations operations) throws DataAccessException {
+                        operations.opsForHash().delete(BLOG_LIKE_FLUSHING_KEY, batch.toArray());
+                        operations.delete(deltas.keySet().stream()
+                                .flatMap(id -> Stream.of(CACHE_BLOG_KEY + id, CACHE_BLOG_SUMMARY_KEY + id))
+                                .collect(Collectors.toList()));
+                        return null;
+                    }
+                });
+            }
+        } catch (Exception e) {
+            log.error("点赞数刷库失败", e);
+        } finally {
+            stringRedisTemplate.execute(UNLOCK_SCRIPT, Collections.singletonList(LOCK_BLOG_LIKE_FLUSH_KEY), token);
+        }
+    }
+
+    @Override
+    public void fillBlogUsers(List<Blog> blogs) {
+        if (blogs.isEmpty()) {
+            return;
+        }
+        // 整页博文的作者一次批量查询，避免N+1
+        Map<Long, UserDTO> users = userService.queryUserDTOs(
+                blogs.stream().map(Blog::getUserId).collect(Collectors.toSet()));
+        blogs.forEach(blog -> {
+            UserDTO user = users.get(blog.getUserId());
+            if (user != null) {
+                blog.setName(user.getNickName());
+                blog.setIcon(user.getIcon());
+            }
+        });
+    }
 }
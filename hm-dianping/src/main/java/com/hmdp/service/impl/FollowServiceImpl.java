@@ -1,10 +1,37 @@
 package com.hmdp.service.impl;
 
+import cn.hutool.core.collection.CollUtil;
+import cn.hutool.core.util.BooleanUtil;
+import com.baomidou.mybatisplus.core.conditions.query.QueryWrapper;
+import com.hmdp.dto.Result;
+import com.hmdp.dto.UserDTO;
 import com.hmdp.entity.Follow;
 import com.hmdp.mapper.FollowMapper;
+import com.hmdp.mapper.UserInfoMapper;
 import com.hmdp.service.IFollowService;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
+import com.hmdp.service.IUserService;
+import com.hmdp.utils.AfterCommit;
+import com.hmdp.utils.UserHolder;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+import javax.annotation.Resource;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import static com.hmdp.utils.RedisConstants.FOLLOWS_KEY;
+import static com.hmdp.utils.RedisConstants.FOLLOW_DIRTY_KEY;
 
 /**
  * <p>
@@ -14,7 +41,142 @@ import org.springframework.stereotype.Service;
  * @author 虎哥
  * @since 2021-12-22
  */
+@Slf4j
 @Service
 public class FollowServiceImpl extends ServiceImpl<FollowMapper, Follow> implements IFollowService {
 
+    /**
+     * 关注集合中的占位成员，保证关注了0个人的用户集合也存在，用于区分"未加载"和"没有关注"
+     */
+    private static final String SENTINEL = "0";
+    private static final int RECONCILE_BATCH_SIZE = 100;
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+    @Resource
+    private UserInfoMapper userInfoMapper;
+    @Resource
+    private IUserService userService;
+
+    @Override
+    @Transactional
+    public Result follow(Long followUserId, Boolean isFollow) {
+        Long userId = UserHolder.getUser().getId();
+        if (userId.equals(followUserId)) {
+            return Result.fail("不能关注自己");
+        }
+        String key = followsKey(userId);
+        boolean following = BooleanUtil.isTrue(
+                stringRedisTemplate.opsForSet().isMember(key, followUserId.toString()));
+        if (BooleanUtil.isTrue(isFollow) == following) {
+            // 状态没有变化，幂等返回
+            return Result.ok();
+        }
+        String member = followUserId.toString();
+        if (BooleanUtil.isTrue(isFollow)) {
+            Follow follow = new Follow();
+            follow.setUserId(userId);
+            follow.setFollowUserId(followUserId);
+            try {
+                save(follow);
+            } catch (DuplicateKeyException e) {
+                // 并发请求已经关注过，只补齐关注集合，计数已由先提交的请求累加
+                AfterCommit.run(() -> stringRedisTemplate.opsForSet().add(key, member));
+                return Result.ok();
+            }
+        } else if (!remove(new QueryWrapper<Follow>()
+                .eq("user_id", userId).eq("follow_user_id", followUserId))) {
+            return Result.ok();
+        }
+        // 数据库原子累加计数，计数偏差由后台任务按tb_follow校正
+        int delta = BooleanUtil.isTrue(isFollow) ? 1 : -1;
+        userInfoMapper.incrFollowCount(userId, delta, 0);
+        userInfoMapper.incrFollowCount(followUserId, 0, delta);
+        // 事务提交后再更新Redis，回滚时关注集合和待校正集合都不变
+        AfterCommit.run(() -> {
+            stringRedisTemplate.opsForSet().add(FOLLOW_DIRTY_KEY, userId.toString(), member);
+            if (BooleanUtil.isTrue(isFollow)) {
+                stringRedisTemplate.opsForSet().add(key, member);
+            } else {
+                stringRedisTemplate.opsForSet().remove(key, member);
+            }
+        });
+        return Result.ok();
+    }
+
+    @Override
+    public Result isFollow(Long followUserId) {
+        Long userId = UserHolder.getUser().getId();
+        Boolean member = stringRedisTemplate.opsForSet().isMember(followsKey(userId), followUserId.toString());
+        return Result.ok(BooleanUtil.isTrue(member));
+    }
+
+    @Override
+    public Result isFollowBatch(List<Long> followUserIds) {
+        Long userId = UserHolder.getUser().getId();
+        Map<Long, Boolean> result = new LinkedHashMap<>(followUserIds.size() * 2);
+        if (followUserIds.isEmpty()) {
+            return Result.ok(result);
+        }
+        // 一次SMISMEMBER判断整页作者
+        Map<Object, Boolean> members = stringRedisTemplate.opsForSet()
+                .isMember(followsKey(userId), followUserIds.stream().map(String::valueOf).toArray());
+        for (Long id : followUserIds) {
+            result.put(id, members != null && BooleanUtil.isTrue(members.get(id.toString())));
+        }
+        return Result.ok(result);
+    }
+
+    @Override
+    public Result followCommons(Long id) {
+        Long userId = UserHolder.getUser().getId();
+        // 两个用户关注集合的交集
+        Set<Long> commonIds = queryFolloweeIdsIn(userId, followsKey(id));
+        if (commonIds.isEmpty()) {
+            return Result.ok(Collections.emptyList());
+        }
+        Map<Long, UserDTO> users = userService.queryUserDTOs(commonIds);
+        return Result.ok(commonIds.stream().map(users::get).filter(Objects::nonNull)
+                .collect(Collectors.toList()));
+    }
+
+    @Override
+    public Set<Long> queryFolloweeIdsIn(Long userId, String setKey) {
+        Set<String> ids = stringRedisTemplate.opsForSet().intersect(followsKey(userId), setKey);
+        if (CollUtil.isEmpty(ids)) {
+            return Collections.emptySet();
+        }
+        return ids.stream().filter(id -> !SENTINEL.equals(id)).map(Long::valueOf).collect(Collectors.toSet());
+    }
+
+    /**
+     * 返回用户的关注集合key，集合不存在时从数据库加载
+     */
+    private String followsKey(Long userId) {
+        String key = FOLLOWS_KEY + userId;
+        if (BooleanUtil.isTrue(stringRedisTemplate.hasKey(key))) {
+            return key;
+        }
+        List<String> ids = query().select("follow_user_id").eq("user_id", userId).list()
+                .stream().map(follow -> follow.getFollowUserId().toString()).collect(Collectors.toList());
+        ids.add(SENTINEL);
+        stringRedisTemplate.opsForSet().add(key, ids.toArray(new String[0]));
+        return key;
+    }
+
+    /**
+     * 按tb_follow校正发生过关注变化的用户的关注数和粉丝数
+     */
+    @Scheduled(fixedDelay = 300000)
+    public void reconcileFollowCount() {
+        try {
+            List<String> dirty;
+            while (CollUtil.isNotEmpty(dirty = stringRedisTemplate.opsForSet().pop(FOLLOW_DIRTY_KEY, RECONCILE_BATCH_SIZE))) {
+                Collection<Long> userIds = dirty.stream().map(Long::valueOf).collect(Collectors.toList());
+                userInfoMapper.reconcileFollowCount(userIds);
+            }
+        } catch (Exception e) {
+            log.error("关注数校正失败", e);
+        }
+    }
 }
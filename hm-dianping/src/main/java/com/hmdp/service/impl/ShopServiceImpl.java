@@ -8,22 +8,56 @@ import cn.hutool.core.util.StrUtil;
 import cn.hutool.json.JSON;
 import cn.hutool.json.JSONObject;
 import cn.hutool.json.JSONUtil;
+import com.baomidou.mybatisplus.extension.plugins.pagination.Page;
+import com.hmdp.dto.CursorResult;
 import com.hmdp.dto.Result;
 import com.hmdp.entity.Shop;
 import com.hmdp.mapper.ShopMapper;
 import com.hmdp.service.IShopService;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
+import com.hmdp.utils.AfterCommit;
 import com.hmdp.utils.CacheClient;
+import com.hmdp.utils.InvalidCursorException;
+import com.hmdp.utils.PageCursor;
+import com.hmdp.utils.ShopCounters;
 import com.hmdp.utils.RedisConstants;
 import com.hmdp.utils.RedisData;
+import com.hmdp.utils.ShopGeoIndex;
+import com.hmdp.utils.ShopLocalGeoIndex;
+import com.hmdp.utils.ShopNameIndex;
+import com.hmdp.utils.ShopNameSuggester;
+import com.hmdp.utils.SystemConstants;
+import com.hmdp.utils.UvStats;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.dao.DataAccessException;
+import org.springframework.data.redis.core.RedisOperations;
+import org.springframework.data.redis.core.SessionCallback;
 import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
 import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.stream.Collectors;
 
 import static com.hmdp.utils.RedisConstants.*;
 
@@ -35,6 +69,7 @@ import static com.hmdp.utils.RedisConstants.*;
  * @author 虎哥
  * @since 2021-12-22
  */
+@Slf4j
 @Service
 public class ShopServiceImpl extends ServiceImpl<ShopMapper, Shop> implements IShopService {
 
@@ -42,9 +77,60 @@ public class ShopServiceImpl extends ServiceImpl<ShopMapper, Shop> implements IS
 
     private CacheClient cacheClient;
 
-    public ShopServiceImpl(StringRedisTemplate stringRedisTemplate,CacheClient cacheClient) {
+    private ShopGeoIndex shopGeoIndex;
+
+    private ShopLocalGeoIndex shopLocalGeoIndex;
+
+    private ShopNameIndex shopNameIndex;
+
+    private ShopNameSuggester shopNameSuggester;
+
+    private ShopCounters shopCounters;
+
+    private UvStats uvStats;
+
+    public ShopServiceImpl(StringRedisTemplate stringRedisTemplate,CacheClient cacheClient,
+                           ShopGeoIndex shopGeoIndex,ShopLocalGeoIndex shopLocalGeoIndex,
+                           ShopNameIndex shopNameIndex,ShopNameSuggester shopNameSuggester,
+                           ShopCounters shopCounters,UvStats uvStats) {
         this.stringRedisTemplate = stringRedisTemplate;
         this.cacheClient = cacheClient;
+        this.shopGeoIndex = shopGeoIndex;
+        this.shopLocalGeoIndex = shopLocalGeoIndex;
+        this.shopNameIndex = shopNameIndex;
+        this.shopNameSuggester = shopNameSuggester;
+        this.shopCounters = shopCounters;
+        this.uvStats = uvStats;
+    }
+
+    /**
+     * 附近商铺的搜索半径，米
+     */
+    private static final double NEARBY_RADIUS_METERS = 5000;
+    /**
+     * 加载GEO索引时每个分片的id跨度
+     */
+    private static final long GEO_LOAD_CHUNK = 1000;
+    private static final int GEO_LOAD_THREADS = 4;
+    /**
+     * 进程内索引需要的字段
+     */
+    private static final String[] LOCAL_INDEX_COLUMNS = {"id", "type_id", "x", "y", "name", "sold", "score"};
+    /**
+     * 商铺列表id缓存每个key保存的页数
+     */
+    private static final int LIST_WINDOW_PAGES = 4;
+    private static final int COUNTER_FLUSH_BATCH_SIZE = 500;
+
+    private static final DefaultRedisScript<Long> DELTA_SWAP_SCRIPT;
+    private static final DefaultRedisScript<Long> UNLOCK_SCRIPT;
+    static {
+        DELTA_SWAP_SCRIPT = new DefaultRedisScript<>();
+        DELTA_SWAP_SCRIPT.setLocation(new ClassPathResource("delta_swap.lua"));
+        DELTA_SWAP_SCRIPT.setResultType(Long.class);
+        UNLOCK_SCRIPT = new DefaultRedisScript<>();
+        UNLOCK_SCRIPT.setLocation(new ClassPathResource("unlock.lua"));
+        UNLOCK_SCRIPT.setResultType(Long.class);
     }
 
     private static final ExecutorService CACHE_REBUILD_EXECUTOR = Executors.newFixedThreadPool(10);
@@ -64,6 +150,8 @@ public class ShopServiceImpl extends ServiceImpl<ShopMapper, Shop> implements IS
         if (shop == null) {
             return Result.fail("店铺不存在！");
         }
+        shopCounters.fillPending(Collections.singletonList(shop));
+        uvStats.record(UvStats.Target.SHOP, id);
         return Result.ok(shop);
     }
 
@@ -222,6 +310,22 @@ public class ShopServiceImpl extends ServiceImpl<ShopMapper, Shop> implements IS
         return shop;
     }
 
+    @Override
+    public Result saveShop(Shop shop) {
+        // 写入数据库
+        save(shop);
+        // 新商铺会改变所属类型的列表
+        if (shop.getTypeId() != null) {
+            evictShopListOfType(shop.getTypeId());
+        }
+        // 加入所属类型的GEO索引
+        shopGeoIndex.add(shop);
+        shopLocalGeoIndex.put(shop);
+        shopNameIndex.put(shop);
+        shopNameSuggester.put(shop);
+        return Result.ok(shop.getId());
+    }
+
     @Transactional
     @Override
     public Result update(Shop shop) {
@@ -229,13 +333,123 @@ public class ShopServiceImpl extends ServiceImpl<ShopMapper, Shop> implements IS
         if (id == null) {
             return Result.fail("店铺id不能为空");
         }
+        Shop old = query().select("id", "type_id").eq("id", id).one();
+        if (old == null) {
+            return Result.fail("店铺不存在！");
+        }
         // 1. 更新数据库
         updateById(shop);
-        // 2. 删除redis缓存
-        stringRedisTemplate.delete(CACHE_SHOP_KEY + id);
+        // 2. 类型、坐标、名称、销量或评分变化时，在事务中读出提交后的索引字段
+        boolean indexChanged = shop.getTypeId() != null || shop.getX() != null || shop.getY() != null
+                || shop.getName() != null || shop.getSold() != null || shop.getScore() != null;
+        boolean typeChanged = shop.getTypeId() != null && !shop.getTypeId().equals(old.getTypeId());
+        Shop indexed = indexChanged ? query().select(LOCAL_INDEX_COLUMNS).eq("id", id).one() : null;
+        // 3. 事务提交后再删除缓存、同步各索引：回滚时索引与数据库保持一致，并发读也不会在提交前把旧数据重新写回缓存
+        AfterCommit.run(() -> {
+            stringRedisTemplate.delete(CACHE_SHOP_KEY + id);
+            if (indexed == null) {
+                return;
+            }
+            if (typeChanged) {
+                shopGeoIndex.remove(old.getTypeId(), id);
+                // 换类型只影响新旧两个类型的列表，其他字段不在列表缓存中
+                evictShopListOfType(old.getTypeId());
+                evictShopListOfType(shop.getTypeId());
+            }
+            shopGeoIndex.add(indexed);
+            shopLocalGeoIndex.put(indexed);
+            shopNameIndex.put(indexed);
+            shopNameSuggester.put(indexed);
+        });
         return Result.ok();
     }
 
+    /**
+     * 启动后检查GEO索引，未加载过时在后台加载
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void loadShopGeoOnStartup() {
+        CACHE_REBUILD_EXECUTOR.submit(() -> {
+            try {
+                if (!BooleanUtil.isTrue(stringRedisTemplate.hasKey(SHOP_GEO_READY_KEY))) {
+                    loadShopGeo();
+                }
+            } catch (Exception e) {
+                log.error("加载商铺GEO索引失败", e);
+            }
+        });
+        CACHE_REBUILD_EXECUTOR.submit(this::rebuildLocalIndexes);
+    }
+
+    /**
+     * 定时全量重建进程内的GEO索引和名称索引，其他实例上的商铺变化在这里同步过来
+     */
+    @Scheduled(fixedDelay = 300000, initialDelay = 300000)
+    public void rebuildLocalIndexes() {
+        // 先开始记录增量再读取，读取期间新增、修改的商铺在各索引替换前重放
+        shopLocalGeoIndex.beginRebuild();
+        shopNameIndex.beginRebuild();
+        shopNameSuggester.beginRebuild();
+        try {
+            List<Shop> shops = new ArrayList<>();
+            List<Shop> chunk;
+            long lastId = 0;
+            // 按id分批读取，避免一次查询整张表
+            do {
+                chunk = query().select(LOCAL_INDEX_COLUMNS).gt("id", lastId)
+                        .orderByAsc("id").last("LIMIT " + GEO_LOAD_CHUNK).list();
+                shops.addAll(chunk);
+                if (!chunk.isEmpty()) {
+                    lastId = chunk.get(chunk.size() - 1).getId();
+                }
+            } while (chunk.size() == GEO_LOAD_CHUNK);
+            shopLocalGeoIndex.rebuild(shops);
+            shopNameIndex.rebuild(shops);
+            shopNameSuggester.rebuild(shops);
+        } catch (Exception e) {
+            shopLocalGeoIndex.cancelRebuild();
+            shopNameIndex.cancelRebuild();
+            shopNameSuggester.cancelRebuild();
+            log.error("重建进程内商铺索引失败", e);
+        }
+    }
+
+    /**
+     * 从tb_shop加载全部商铺的GEO索引：按id区间切分，多线程并行查询并用管道写入
+     */
+    public void loadShopGeo() throws InterruptedException {
+        // 多实例同时启动时只由一个实例加载
+        Boolean locked = stringRedisTemplate.opsForValue().setIfAbsent(LOCK_SHOP_GEO_KEY, "1", 10, TimeUnit.MINUTES);
+        if (!BooleanUtil.isTrue(locked)) {
+            return;
+        }
+        ExecutorService executor = Executors.newFixedThreadPool(GEO_LOAD_THREADS);
+        try {
+            Shop min = query().select("id").orderByAsc("id").last("LIMIT 1").one();
+            Shop max = query().select("id").orderByDesc("id").last("LIMIT 1").one();
+            if (min == null) {
+                return;
+            }
+            List<Future<?>> futures = new ArrayList<>();
+            for (long lo = min.getId(); lo <= max.getId(); lo += GEO_LOAD_CHUNK) {
+                long start = lo;
+                futures.add(executor.submit(() -> shopGeoIndex.addAll(
+                        query().select("id", "type_id", "x", "y")
+                                .between("id", start, start + GEO_LOAD_CHUNK - 1).list())));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+            stringRedisTemplate.opsForValue().set(SHOP_GEO_READY_KEY, "1");
+            log.info("商铺GEO索引加载完成，共{}个分片", futures.size());
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("加载商铺GEO索引失败", e.getCause());
+        } finally {
+            executor.shutdown();
+            unLock(LOCK_SHOP_GEO_KEY);
+        }
+    }
+
     public void saveShop2Redis(Long id,Long expireSeconds) throws InterruptedException {
         // 1. 查询数据库
         Shop shop = getById(id);
@@ -248,4 +462,235 @@ public class ShopServiceImpl extends ServiceImpl<ShopMapper, Shop> implements IS
         // 3. 写入redis
         stringRedisTemplate.opsForValue().set(CACHE_SHOP_KEY + id,JSONUtil.toJsonStr(redisData));
     }
+
+    @Override
+    public Result queryShopByType(Integer typeId, Integer current, String cursor, Double x, Double y) {
+        if (x != null && y != null) {
+            return queryNearbyShop(typeId, current, x, y);
+        }
+        if (cursor == null) {
+            // 兼容旧客户端的页码分页，id列表走缓存
+            return Result.ok(queryShopsByIds(queryShopIdsOfType(typeId, current)));
+        }
+        PageCursor last = PageCursor.decode(cursor);
+        List<Shop> shops = query()
+                .eq("type_id", typeId)
+                .gt(last != null, "id", last == null ? null : last.getId())
+                .orderByAsc("id")
+                .last("LIMIT " + SystemConstants.DEFAULT_PAGE_SIZE)
+                .list();
+        shopCounters.fillPending(shops);
+        return Result.ok(new CursorResult(shops, nextCursor(shops, SystemConstants.DEFAULT_PAGE_SIZE)));
+    }
+
+    /**
+     * 按类型分页查询商铺id：每个key缓存连续几页的id，短时间过期，商铺新增或换类型时主动删除
+     */
+    private List<Long> queryShopIdsOfType(Integer typeId, Integer current) {
+        int size = SystemConstants.DEFAULT_PAGE_SIZE;
+        // 与Page一样，小于1的页码按第一页处理
+        int page = Math.max(current, 1);
+        int window = (page - 1) / LIST_WINDOW_PAGES;
+        String key = CACHE_SHOP_LIST_KEY + typeId + ":id:" + window;
+        String cached = stringRedisTemplate.opsForValue().get(key);
+        List<Long> windowIds;
+        if (cached != null) {
+            windowIds = cached.isEmpty() ? Collections.emptyList()
+                    : Arrays.stream(cached.split(",")).map(Long::valueOf).collect(Collectors.toList());
+        } else {
+            int windowSize = size * LIST_WINDOW_PAGES;
+            windowIds = query().select("id").eq("type_id", typeId).orderByAsc("id")
+                    .last("LIMIT " + (long) window * windowSize + "," + windowSize).list()
+                    .stream().map(Shop::getId).collect(Collectors.toList());
+            // 先登记key再写入，删除时不会漏掉
+            stringRedisTemplate.opsForSet().add(CACHE_SHOP_LIST_KEYS_KEY + typeId, key);
+            stringRedisTemplate.opsForValue().set(key, StrUtil.join(",", windowIds), CACHE_SHOP_LIST_TTL, TimeUnit.MINUTES);
+        }
+        int from = ((page - 1) % LIST_WINDOW_PAGES) * size;
+        if (from >= windowIds.size()) {
+            return Collections.emptyList();
+        }
+        return windowIds.subList(from, Math.min(from + size, windowIds.size()));
+    }
+
+    /**
+     * 删除某个类型的全部列表id缓存
+     */
+    private void evictShopListOfType(Long typeId) {
+        String keysKey = CACHE_SHOP_LIST_KEYS_KEY + typeId;
+        Set<String> keys = stringRedisTemplate.opsForSet().members(keysKey);
+        if (CollUtil.isNotEmpty(keys)) {
+            stringRedisTemplate.delete(keys);
+        }
+        stringRedisTemplate.delete(keysKey);
+    }
+
+    /**
+     * 批量查询商铺，走逻辑过期的商铺缓存，未命中的一次查库
+     */
+    private List<Shop> queryShopsByIds(List<Long> ids) {
+        if (ids.isEmpty()) {
+            return Collections.emptyList();
+        }
+        List<Shop> shops = cacheClient.queryBatchWithLogicalExpire(CACHE_SHOP_KEY, ids, Shop.class,
+                missIds -> listByIds(missIds).stream().collect(Collectors.toMap(Shop::getId, Function.identity())),
+                CACHE_SHOP_TTL, TimeUnit.MINUTES);
+        shopCounters.fillPending(shops);
+        return shops;
+    }
+
+    @Override
+    public void incrCounter(Long shopId, ShopCounters.Counter counter, long delta) {
+        shopCounters.incr(shopId, counter, delta);
+    }
+
+    /**
+     * 商铺计数增量刷库
+     * 先把增量hash整体改名为刷库中的hash作为日志，分批UPDATE成功后删除对应字段，
+     * 失败或宕机时日志保留到下次重放，保证每个增量至少写入一次
+     */
+    @Scheduled(fixedDelay = 10000)
+    public void flushShopCounters() {
+        // 多实例部署时只有一个实例刷库，锁的值为本次执行的标识，刷库超时后不会误删别人的锁
+        String token = UUID.randomUUID().toString();
+        Boolean locked = stringRedisTemplate.opsForValue()
+                .setIfAbsent(LOCK_SHOP_COUNTER_FLUSH_KEY, token, 60, TimeUnit.SECONDS);
+        if (!BooleanUtil.isTrue(locked)) {
+            return;
+        }
+        try {
+            Long needFlush = stringRedisTemplate.execute(DELTA_SWAP_SCRIPT,
+                    Arrays.asList(SHOP_COUNTER_DELTA_KEY, SHOP_COUNTER_FLUSHING_KEY));
+            if (needFlush == null || needFlush == 0) {
+                return;
+            }
+            Map<Object, Object> entries = stringRedisTemplate.opsForHash().entries(SHOP_COUNTER_FLUSHING_KEY);
+            List<Object> fields = new ArrayList<>(entries.keySet());
+            for (List<Object> batch : CollUtil.split(fields, COUNTER_FLUSH_BATCH_SIZE)) {
+                // 字段为 <shopId>:<列名>，按列分组
+                Map<String, Map<Long, Long>> deltas = new HashMap<>();
+                Set<Long> shopIds = new HashSet<>();
+                for (Object field : batch) {
+                    String[] parts = field.toString().split(":");
+                    ShopCounters.Counter counter = ShopCounters.Counter.ofColumn(parts[1]);
+                    long delta = Long.parseLong(entries.get(field).toString());
+                    if (counter == null || delta == 0) {
+                        continue;
+                    }
+                    Long shopId = Long.valueOf(parts[0]);
+                    deltas.computeIfAbsent(counter.getColumn(), k -> new HashMap<>()).put(shopId, delta);
+                    shopIds.add(shopId);
+                }
+                Map<String, String> freshCache = new HashMap<>();
+                if (!shopIds.isEmpty()) {
+                    getBaseMapper().incrCounters(deltas, shopIds);
+                    // 商铺缓存是逻辑过期的，不能删除（删除后查询会当作商铺不存在），用刷库后的数据覆盖
+                    LocalDateTime expireTime = LocalDateTime.now().plusMinutes(CACHE_SHOP_TTL);
+                    for (Shop shop : listByIds(shopIds)) {
+                        RedisData redisData = new RedisData();
+                        redisData.setData(shop);
+                        redisData.setExpireTime(expireTime);
+                        freshCache.put(CACHE_SHOP_KEY + shop.getId(), JSONUtil.toJsonStr(redisData));
+                    }
+                }
+                // 删除已刷库的增量，同时覆盖商铺缓存，避免缓存中的旧计数叠加不到增量
+                stringRedisTemplate.executePipelined(new SessionCallback<Object>() {
+                    @Override
+                    @SuppressWarnings("unchecked")
+                    public Object execute(RedisOperations operations) throws DataAccessException {
+                        operations.opsForHash().delete(SHOP_COUNTER_FLUSHING_KEY, batch.toArray());
+                        freshCache.forEach((key, json) -> operations.opsForValue().set(key, json));
+                        return null;
+                    }
+                });
+            }
+        } catch (Exception e) {
+            log.error("商铺计数刷库失败", e);
+        } finally {
+            stringRedisTemplate.execute(UNLOCK_SCRIPT, Collections.singletonList(LOCK_SHOP_COUNTER_FLUSH_KEY), token);
+        }
+    }
+
+    /**
+     * 按距离分页查询附近的商铺，商铺数据批量走缓存
+     */
+    private Result queryNearbyShop(Integer typeId, Integer current, double x, double y) {
+        int size = SystemConstants.DEFAULT_PAGE_SIZE;
+        int from = (Math.max(current, 1) - 1) * size;
+        // 进程内索引构建完成前退回redis GEO
+        Map<Long, Double> distances = shopLocalGeoIndex.isReady()
+                ? shopLocalGeoIndex.search(typeId.longValue(), x, y, NEARBY_RADIUS_METERS, from, size)
+                : shopGeoIndex.search(typeId, x, y, NEARBY_RADIUS_METERS, from, size);
+        if (distances.isEmpty()) {
+            return Result.ok(Collections.emptyList());
+        }
+        List<Shop> shops = queryShopsByIds(new ArrayList<>(distances.keySet()));
+        shops.forEach(shop -> shop.setDistance(distances.get(shop.getId())));
+        return Result.ok(shops);
+    }
+
+    @Override
+    public Result queryShopByName(String name, Integer current, String cursor) {
+        if (StrUtil.isNotBlank(name) && shopNameIndex.isReady()) {
+            return queryShopByNameIndex(name, current, cursor);
+        }
+        if (cursor == null) {
+            Page<Shop> page = query()
+                    .like(StrUtil.isNotBlank(name), "name", name)
+                    .page(new Page<>(current, SystemConstants.MAX_PAGE_SIZE));
+            shopCounters.fillPending(page.getRecords());
+            return Result.ok(page.getRecords());
+        }
+        PageCursor last = PageCursor.decode(cursor);
+        List<Shop> shops = query()
+                .like(StrUtil.isNotBlank(name), "name", name)
+                .gt(last != null, "id", last == null ? null : last.getId())
+                .orderByAsc("id")
+                .last("LIMIT " + SystemConstants.MAX_PAGE_SIZE)
+                .list();
+        shopCounters.fillPending(shops);
+        return Result.ok(new CursorResult(shops, nextCursor(shops, SystemConstants.MAX_PAGE_SIZE)));
+    }
+
+    @Override
+    public Result suggestShop(String prefix, Integer limit) {
+        if (!shopNameSuggester.isReady()) {
+            return Result.ok(Collections.emptyList());
+        }
+        int n = Math.max(1, Math.min(limit, ShopNameSuggester.TOP_K));
+        return Result.ok(shopNameSuggester.suggest(prefix, n));
+    }
+
+    /**
+     * 从名称索引中查询商铺id，不再对tb_shop做LIKE全表扫描，游标中记录下一页的偏移量
+     */
+    private Result queryShopByNameIndex(String name, Integer current, String cursor) {
+        int size = SystemConstants.MAX_PAGE_SIZE;
+        int from;
+        if (cursor == null) {
+            from = (Math.max(current, 1) - 1) * size;
+        } else {
+            PageCursor last = PageCursor.decode(cursor);
+            long offset = last == null ? 0 : last.sortKeyAsLong();
+            // 偏移量由客户端回传，不能为负数或超出int范围
+            if (offset < 0 || offset > Integer.MAX_VALUE - size) {
+                throw new InvalidCursorException();
+            }
+            from = (int) offset;
+        }
+        List<Long> ids = shopNameIndex.search(name, from, size);
+        List<Shop> shops = queryShopsByIds(ids);
+        if (cursor == null) {
+            return Result.ok(shops);
+        }
+        String next = ids.size() < size ? null : PageCursor.encode(from + size, ids.get(ids.size() - 1));
+        return Result.ok(new CursorResult(shops, next));
+    }
+
+    /**
+     * 本页取满时以最后一条的id作为下一页游标，否则已经没有下一页
+     */
+    private static String nextCursor(List<Shop> shops, int size) {
+        return shops.size() < size ? null : PageCursor.encode(shops.get(shops.size() - 1).getId());
+    }
 }
@@ -1,20 +1,29 @@
 package com.hmdp.service.impl;
 
 import cn.hutool.core.collection.CollUtil;
+import cn.hutool.crypto.digest.DigestUtil;
 import cn.hutool.json.JSONUtil;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import com.hmdp.dto.Result;
 import com.hmdp.entity.ShopType;
 import com.hmdp.mapper.ShopTypeMapper;
 import com.hmdp.service.IShopTypeService;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
+import com.hmdp.utils.AfterCommit;
+import com.hmdp.utils.ShopTypeSnapshot;
+import lombok.extern.slf4j.Slf4j;
 import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
 
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Set;
 
 import static com.hmdp.utils.RedisConstants.CACHE_SHOPTYPE_KEY;
+import static com.hmdp.utils.RedisConstants.CACHE_SHOPTYPE_VERSION_KEY;
 
 /**
  * <p>
@@ -24,13 +33,19 @@ import static com.hmdp.utils.RedisConstants.CACHE_SHOPTYPE_KEY;
  * @author 虎哥
  * @since 2021-12-22
  */
+@Slf4j
 @Service
 public class ShopTypeServiceImpl extends ServiceImpl<ShopTypeMapper, ShopType> implements IShopTypeService {
 
     private StringRedisTemplate stringRedisTemplate;
 
-    public ShopTypeServiceImpl(StringRedisTemplate stringRedisTemplate) {
+    private ObjectMapper objectMapper;
+
+    private volatile ShopTypeSnapshot snapshot;
+
+    public ShopTypeServiceImpl(StringRedisTemplate stringRedisTemplate, ObjectMapper objectMapper) {
         this.stringRedisTemplate = stringRedisTemplate;
+        this.objectMapper = objectMapper;
     }
 
     /**
@@ -39,26 +54,101 @@ public class ShopTypeServiceImpl extends ServiceImpl<ShopTypeMapper, ShopType> i
      */
     @Override
     public Result queryTypeList() {
+        ShopTypeSnapshot current = queryTypeSnapshot();
+        if (current.getTypes().isEmpty()) {
+            return Result.fail("商铺类型不存在");
+        }
+        return Result.ok(current.getTypes());
+    }
+
+    @Override
+    public ShopTypeSnapshot queryTypeSnapshot() {
+        ShopTypeSnapshot current = snapshot;
+        if (current == null) {
+            synchronized (this) {
+                if (snapshot == null) {
+                    snapshot = loadSnapshot(currentVersion());
+                }
+                current = snapshot;
+            }
+        }
+        return current;
+    }
+
+    @Override
+    @Transactional
+    public Result saveShopType(ShopType shopType) {
+        save(shopType);
+        // 事务提交后再使缓存失效，避免其他实例在提交前重新加载到旧数据
+        AfterCommit.run(this::evictTypeList);
+        return Result.ok(shopType.getId());
+    }
+
+    @Override
+    @Transactional
+    public Result updateShopType(ShopType shopType) {
+        if (shopType.getId() == null) {
+            return Result.fail("商铺类型id不能为空");
+        }
+        if (!updateById(shopType)) {
+            return Result.fail("商铺类型不存在");
+        }
+        AfterCommit.run(this::evictTypeList);
+        return Result.ok();
+    }
+
+    @Override
+    public void evictTypeList() {
+        stringRedisTemplate.delete(CACHE_SHOPTYPE_KEY);
+        stringRedisTemplate.opsForValue().increment(CACHE_SHOPTYPE_VERSION_KEY);
+    }
+
+    /**
+     * 定时检查redis中的版本号，变化后重新加载快照，请求线程只读本地快照
+     */
+    @Scheduled(fixedDelay = 5000)
+    public void refreshTypeSnapshot() {
+        try {
+            long version = currentVersion();
+            ShopTypeSnapshot current = snapshot;
+            // 空快照不长期保留，数据库补上类型后下一次检查即可加载
+            if (current != null && current.getVersion() == version && !current.getTypes().isEmpty()) {
+                return;
+            }
+            ShopTypeSnapshot loaded = loadSnapshot(version);
+            synchronized (this) {
+                snapshot = loaded;
+            }
+        } catch (Exception e) {
+            log.error("刷新商铺类型快照失败", e);
+        }
+    }
+
+    private long currentVersion() {
+        String version = stringRedisTemplate.opsForValue().get(CACHE_SHOPTYPE_VERSION_KEY);
+        return version == null ? 0 : Long.parseLong(version);
+    }
+
+    private ShopTypeSnapshot loadSnapshot(long version) {
         String key = CACHE_SHOPTYPE_KEY;
         // 查询redis
         Set<String> stringTypeList = stringRedisTemplate.opsForZSet().range(key, 0, -1);
-        // 缓存命中
+        List<ShopType> typeList = new ArrayList<>();
         if (CollUtil.isNotEmpty(stringTypeList)) {
-            List<ShopType> typeList = new ArrayList<>();
-            stringTypeList.stream().forEach(e ->
-                    typeList.add(JSONUtil.toBean(e,ShopType.class)));
-            return Result.ok(typeList);
+            // 缓存命中，只在加载快照时解析一次
+            stringTypeList.forEach(e -> typeList.add(JSONUtil.toBean(e, ShopType.class)));
+        } else {
+            // 未命中
+            typeList.addAll(query().orderByAsc("sort").list());
+            typeList.forEach(e -> stringRedisTemplate.opsForZSet().add(key, JSONUtil.toJsonStr(e), e.getSort()));
         }
-        // 未命中
-        List<ShopType> typeList = query().orderByAsc("sort").list();
-        if (CollUtil.isEmpty(typeList)) {
-            return Result.fail("商铺类型不存在");
+        try {
+            // 没有商铺类型时与原来的接口一样返回失败
+            byte[] body = objectMapper.writeValueAsBytes(
+                    typeList.isEmpty() ? Result.fail("商铺类型不存在") : Result.ok(typeList));
+            return new ShopTypeSnapshot(version, typeList, body, "\"" + DigestUtil.md5Hex(body) + "\"");
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException("商铺类型序列化失败", e);
         }
-
-        typeList.stream().forEach(e ->
-                stringRedisTemplate.opsForZSet().add(key,
-                        JSONUtil.toJsonStr(e),e.getSort()));
-
-        return Result.ok(typeList);
     }
 }
@@ -1,11 +1,30 @@
 package com.hmdp.service.impl;
 
+import com.hmdp.dto.CreditRankDTO;
+import com.hmdp.dto.Result;
+import com.hmdp.dto.UserDTO;
 import com.hmdp.entity.UserInfo;
 import com.hmdp.mapper.UserInfoMapper;
 import com.hmdp.service.IUserInfoService;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
+import com.hmdp.service.IUserService;
+import com.hmdp.utils.CreditRanking;
+import com.hmdp.utils.SystemConstants;
+import com.hmdp.utils.UserHolder;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
 
+import javax.annotation.Resource;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
 /**
  * <p>
  *  服务实现类
@@ -14,7 +33,125 @@ import org.springframework.stereotype.Service;
  * @author 虎哥
  * @since 2021-12-24
  */
+@Slf4j
 @Service
 public class UserInfoServiceImpl extends ServiceImpl<UserInfoMapper, UserInfo> implements IUserInfoService {
 
+    @Resource
+    private IUserService userService;
+    @Resource
+    private CreditRanking creditRanking;
+
+    /**
+     * 查询自己名次时前后各返回的人数
+     */
+    private static final int CREDIT_RANK_WINDOW = 5;
+    private static final int CREDIT_RANK_CHUNK = 1000;
+
+    private static final ExecutorService CREDIT_RANK_EXECUTOR = Executors.newSingleThreadExecutor();
+
+    @Override
+    public void addCredits(Long userId, int delta) {
+        // tb_user_info的记录不随注册创建，一条upsert完成插入或累加
+        getBaseMapper().addCredits(userId, delta);
+        // 写入更新后的积分而不是增量，榜单和数据库不一致时以数据库为准；并发变化导致的偏差由定时重建修正
+        UserInfo info = query().select("user_id", "credits").eq("user_id", userId).one();
+        creditRanking.update(userId, info == null || info.getCredits() == null ? 0 : info.getCredits());
+    }
+
+    @Override
+    public Result queryCreditRank(Integer current) {
+        int size = SystemConstants.MAX_PAGE_SIZE;
+        long start = (long) (Math.max(current, 1) - 1) * size;
+        return Result.ok(toRankDTOs(start, creditRanking.range(start, size)));
+    }
+
+    @Override
+    public Result queryMyCreditRank() {
+        Long userId = UserHolder.getUser().getId();
+        Long rank = creditRanking.rankOf(userId);
+        Map<String, Object> result = new HashMap<>(4);
+        if (rank == null) {
+            // 积分为0不上榜
+            result.put("rank", null);
+            result.put("around", new ArrayList<>());
+            return Result.ok(result);
+        }
+        long start = Math.max(rank - CREDIT_RANK_WINDOW, 0);
+        int size = (int) (rank - start) + CREDIT_RANK_WINDOW + 1;
+        List<CreditRankDTO> around = toRankDTOs(start, creditRanking.range(start, size));
+        result.put("rank", rank + 1);
+        result.put("around", around);
+        return Result.ok(result);
+    }
+
+    /**
+     * 榜单条目批量补充用户信息
+     */
+    private List<CreditRankDTO> toRankDTOs(long start, Map<Long, Integer> entries) {
+        Map<Long, UserDTO> users = userService.queryUserDTOs(entries.keySet());
+        List<CreditRankDTO> list = new ArrayList<>(entries.size());
+        long rank = start;
+        for (Map.Entry<Long, Integer> entry : entries.entrySet()) {
+            rank++;
+            CreditRankDTO dto = new CreditRankDTO();
+            dto.setRank(rank);
+            dto.setUserId(entry.getKey());
+            dto.setCredits(entry.getValue());
+            UserDTO user = users.get(entry.getKey());
+            if (user != null) {
+                dto.setNickName(user.getNickName());
+                dto.setIcon(user.getIcon());
+            }
+            list.add(dto);
+        }
+        return list;
+    }
+
+    /**
+     * 启动后榜单不存在时在后台重建
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void loadCreditRankingOnStartup() {
+        CREDIT_RANK_EXECUTOR.submit(() -> {
+            if (!creditRanking.exists()) {
+                rebuildCreditRanking();
+            }
+        });
+    }
+
+    /**
+     * 每天全量重建一次，修正增量更新可能产生的偏差
+     */
+    @Override
+    @Scheduled(cron = "0 0 4 * * ?")
+    public void rebuildCreditRanking() {
+        if (!creditRanking.beginRebuild()) {
+            return;
+        }
+        boolean success = false;
+        long total = 0;
+        try {
+            List<UserInfo> chunk;
+            long lastId = 0;
+            // 按user_id分批读取，每批读完立即写入，内存中只保留一批
+            do {
+                chunk = query().select("user_id", "credits").gt("user_id", lastId).gt("credits", 0)
+                        .orderByAsc("user_id").last("LIMIT " + CREDIT_RANK_CHUNK).list();
+                if (!chunk.isEmpty()) {
+                    creditRanking.appendRebuild(chunk);
+                    lastId = chunk.get(chunk.size() - 1).getUserId();
+                    total += chunk.size();
+                }
+            } while (chunk.size() == CREDIT_RANK_CHUNK);
+            success = true;
+        } catch (Exception e) {
+            log.error("重建积分榜失败", e);
+        } finally {
+            long replayed = creditRanking.finishRebuild(success);
+            if (success) {
+                log.info("积分榜重建完成，共{}人，重放{}次积分变化", total, replayed);
+            }
+        }
+    }
 }
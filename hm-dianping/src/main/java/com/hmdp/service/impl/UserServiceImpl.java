@@ -2,25 +2,55 @@ package com.hmdp.service.impl;
 
 import cn.hutool.core.bean.BeanUtil;
 import cn.hutool.core.bean.copier.CopyOptions;
+import cn.hutool.core.util.BooleanUtil;
 import cn.hutool.core.util.RandomUtil;
+import cn.hutool.core.util.StrUtil;
+import cn.hutool.json.JSONUtil;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
 import com.hmdp.dto.LoginFormDTO;
 import com.hmdp.dto.Result;
 import com.hmdp.dto.UserDTO;
+import com.baomidou.mybatisplus.core.conditions.query.QueryWrapper;
+import com.hmdp.entity.SignMonth;
 import com.hmdp.entity.User;
+import com.hmdp.mapper.SignMonthMapper;
 import com.hmdp.mapper.UserMapper;
 import com.hmdp.service.IUserService;
+import com.hmdp.utils.CacheClient;
 import com.hmdp.utils.RegexUtils;
+import com.hmdp.utils.SmsCodeDispatcher;
+import com.hmdp.utils.UserHolder;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.dao.DataAccessException;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.data.redis.connection.BitFieldSubCommands;
+import org.springframework.data.redis.core.Cursor;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.RedisOperations;
+import org.springframework.data.redis.core.ScanOptions;
+import org.springframework.data.redis.core.SessionCallback;
 import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
 
 import javax.servlet.http.HttpSession;
 
+import java.time.LocalDate;
+import java.time.YearMonth;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.UUID;
 import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
 
 import static com.hmdp.utils.RedisConstants.*;
 import static com.hmdp.utils.SystemConstants.USER_NICK_NAME_PREFIX;
@@ -39,12 +69,44 @@ public class UserServiceImpl extends ServiceImpl<UserMapper, User> implements IU
 
     private final StringRedisTemplate stringRedisTemplate;
 
-    public UserServiceImpl(StringRedisTemplate stringRedisTemplate) {
+    private final CacheClient cacheClient;
+
+    private final SmsCodeDispatcher smsCodeDispatcher;
+
+    private final SignMonthMapper signMonthMapper;
+
+    private static final DateTimeFormatter SIGN_MONTH_FORMAT = DateTimeFormatter.ofPattern("yyyyMM");
+    /**
+     * 计算连续签到时最多往前查询的月数
+     */
+    private static final int SIGN_STREAK_MAX_MONTHS = 12;
+    private static final int SIGN_ARCHIVE_BATCH_SIZE = 500;
+
+    private static final DefaultRedisScript<Long> LOGIN_CODE_SCRIPT;
+    private static final DefaultRedisScript<Long> SMS_CODE_SCRIPT;
+    private static final DefaultRedisScript<Long> SMS_CODE_ROLLBACK_SCRIPT;
+    static {
+        LOGIN_CODE_SCRIPT = new DefaultRedisScript<>();
+        LOGIN_CODE_SCRIPT.setLocation(new ClassPathResource("login_code.lua"));
+        LOGIN_CODE_SCRIPT.setResultType(Long.class);
+        SMS_CODE_SCRIPT = new DefaultRedisScript<>();
+        SMS_CODE_SCRIPT.setLocation(new ClassPathResource("sms_code.lua"));
+        SMS_CODE_SCRIPT.setResultType(Long.class);
+        SMS_CODE_ROLLBACK_SCRIPT = new DefaultRedisScript<>();
+        SMS_CODE_ROLLBACK_SCRIPT.setLocation(new ClassPathResource("sms_code_rollback.lua"));
+        SMS_CODE_ROLLBACK_SCRIPT.setResultType(Long.class);
+    }
+
+    public UserServiceImpl(StringRedisTemplate stringRedisTemplate, CacheClient cacheClient,
+                           SmsCodeDispatcher smsCodeDispatcher, SignMonthMapper signMonthMapper) {
         this.stringRedisTemplate = stringRedisTemplate;
+        this.cacheClient = cacheClient;
+        this.smsCodeDispatcher = smsCodeDispatcher;
+        this.signMonthMapper = signMonthMapper;
     }
 
     @Override
-    public Result sendCode(String phone, HttpSession session) {
+    public Result sendCode(String phone, String ip, HttpSession session) {
         // 用户在提交手机号后，会校验手机号是否合法，
         // 如果不合法，则要求用户重新输入手机号
         if (RegexUtils.isPhoneInvalid(phone)) {
@@ -53,11 +115,29 @@ public class UserServiceImpl extends ServiceImpl<UserMapper, User> implements IU
 
         // 如果手机号合法，后台此时生成对应的验证码，同时将验证码进行保存，
         String code = RandomUtil.randomNumbers(6);
+        // lua脚本原子地校验冷却时间和日配额，通过后写入验证码
         // redis存储验证码改善session存储存在的tomcat服务器集群下数据不一致
-        stringRedisTemplate.opsForValue().set(LOGIN_CODE_KEY + phone, code,LOGIN_CODE_TTL, TimeUnit.MINUTES);
+        // 日配额按自然日计数，key中带日期，过了当天就不再使用
+        String today = LocalDate.now().format(DateTimeFormatter.BASIC_ISO_DATE);
+        List<String> keys = Arrays.asList(SMS_COOLDOWN_KEY + phone, SMS_PHONE_DAY_KEY + today + ":" + phone,
+                SMS_IP_DAY_KEY + today + ":" + ip, LOGIN_CODE_KEY + phone);
+        Long result = stringRedisTemplate.execute(SMS_CODE_SCRIPT, keys,
+                code,
+                String.valueOf(TimeUnit.MINUTES.toSeconds(LOGIN_CODE_TTL)),
+                SMS_COOLDOWN_TTL.toString(),
+                SMS_PHONE_DAY_LIMIT.toString(),
+                SMS_IP_DAY_LIMIT.toString(),
+                String.valueOf(TimeUnit.DAYS.toSeconds(1)));
+        if (result == null || result != 0) {
+            return Result.fail(result != null && result == 1 ? "发送过于频繁，请稍后再试" : "今日发送次数已达上限");
+        }
 
-        // 然后再通过短信的方式将验证码发送给用户
-        log.debug("将code通过短信方式发送:{}",code);
+        // 然后再通过短信的方式将验证码发送给用户，交给异步队列，不阻塞请求线程
+        if (!smsCodeDispatcher.submit(phone, code)) {
+            // 队列已满，撤销冷却时间、配额计数和验证码，允许用户稍后重试
+            stringRedisTemplate.execute(SMS_CODE_ROLLBACK_SCRIPT, keys, code);
+            return Result.fail("短信服务繁忙，请稍后再试");
+        }
         return Result.ok();
     }
 
@@ -73,24 +153,32 @@ public class UserServiceImpl extends ServiceImpl<UserMapper, User> implements IU
         if (RegexUtils.isCodeInvalid(loginForm.getCode())) {
             return Result.fail("验证码格式错误");
         }
-        // 从redis取出cacheCode
-        String cacheCode = stringRedisTemplate.opsForValue().get(LOGIN_CODE_KEY + phone);
-
+        // lua脚本原子地校验并删除验证码，同时取出手机号对应的用户id缓存，一次往返
+        Long result = stringRedisTemplate.execute(LOGIN_CODE_SCRIPT,
+                Arrays.asList(LOGIN_CODE_KEY + phone, CACHE_USER_PHONE_KEY + phone),
+                loginForm.getCode());
         // 如果不一致，则无法通过校验，
-        if (cacheCode == null || !loginForm.getCode().equals(cacheCode)) {
+        if (result == null || result == -1) {
             return Result.fail("验证码错误");
         }
 
-        // 如果一致，则后台根据手机号查询用户，
-        User user = query().eq("phone", phone).one();
-        // 如果用户不存在，则为用户创建账号信息，保存到数据库，
-        if (user == null) {
-            user = createUserWithPhone(phone);
+        // 命中手机号缓存，根据用户id查询用户缓存
+        UserDTO userDTO = result > 0 ? queryUserDTO(result) : null;
+        // 需要写回缓存的用户，为null表示缓存都已命中
+        UserDTO loaded = null;
+        if (userDTO == null) {
+            // 命中空值说明是新用户，跳过数据库查询直接注册
+            User user = result == -2 ? null : query().eq("phone", phone).one();
+            // 如果用户不存在，则为用户创建账号信息，保存到数据库，
+            if (user == null) {
+                user = createUserWithPhone(phone);
+            }
+            userDTO = BeanUtil.copyProperties(user, UserDTO.class);
+            loaded = userDTO;
         }
 
         // 无论是否存在，都会将用户信息保存到session中，方便后续获得当前登录信息
         // session.setAttribute("user", BeanUtil.copyProperties(user, UserDTO.class));
-        UserDTO userDTO = BeanUtil.copyProperties(user, UserDTO.class);
         // 保存到redis中
         String token = UUID.randomUUID().toString();
         String tokenKey = LOGIN_USER_KEY + token;
@@ -100,20 +188,280 @@ public class UserServiceImpl extends ServiceImpl<UserMapper, User> implements IU
                         .ignoreNullValue()
                         .setFieldValueEditor((fieldName,fieldValue) ->
                                 fieldValue.toString()));
-        stringRedisTemplate.opsForHash().putAll(tokenKey,userMap);
-        // 设置token有效期，模拟session
-        stringRedisTemplate.expire(tokenKey,LOGIN_USER_TTL,TimeUnit.MINUTES);
+        UserDTO cacheUser = loaded;
+        // token写入、有效期设置以及缓存回写放在同一个管道中，一次往返
+        stringRedisTemplate.executePipelined(new SessionCallback<Object>() {
+            @Override
+            @SuppressWarnings("unchecked")
+            public Object execute(RedisOperations operations) throws DataAccessException {
+                operations.opsForHash().putAll(tokenKey, userMap);
+                // 设置token有效期，模拟session
+                operations.expire(tokenKey, LOGIN_USER_TTL, TimeUnit.MINUTES);
+                if (cacheUser != null) {
+                    operations.opsForValue().set(CACHE_USER_PHONE_KEY + phone, cacheUser.getId().toString(),
+                            CACHE_USER_PHONE_TTL, TimeUnit.MINUTES);
+                    operations.opsForValue().set(CACHE_USER_KEY + cacheUser.getId(), JSONUtil.toJsonStr(cacheUser),
+                            CACHE_USER_TTL, TimeUnit.MINUTES);
+                }
+                return null;
+            }
+        });
         // 存在问题：当前的有效期是只要到了30min就会删除redis
         // 解决方法：在拦截器中，添加刷新expire，每次请求都会先被拦截
         // 返回token给客户端
         return Result.ok(token);
     }
 
+    @Override
+    public UserDTO queryUserDTO(Long id) {
+        return cacheClient.queryWithPassThrough(CACHE_USER_KEY, id, UserDTO.class,
+                this::loadUserDTO, CACHE_USER_TTL, TimeUnit.MINUTES);
+    }
+
+    private UserDTO loadUserDTO(Long id) {
+        User user = getById(id);
+        return user == null ? null : BeanUtil.copyProperties(user, UserDTO.class);
+    }
+
+    @Override
+    public Map<Long, UserDTO> queryUserDTOs(Collection<Long> ids) {
+        Map<Long, UserDTO> result = new HashMap<>(ids.size() * 2);
+        if (ids.isEmpty()) {
+            return result;
+        }
+        List<Long> idList = new ArrayList<>(new LinkedHashSet<>(ids));
+        // 1. MGET一次取出所有用户缓存
+        List<String> keys = idList.stream().map(id -> CACHE_USER_KEY + id).collect(Collectors.toList());
+        List<String> jsons = stringRedisTemplate.opsForValue().multiGet(keys);
+        List<Long> missIds = new ArrayList<>();
+        for (int i = 0; i < idList.size(); i++) {
+            String json = jsons == null ? null : jsons.get(i);
+            if (StrUtil.isNotBlank(json)) {
+                result.put(idList.get(i), JSONUtil.toBean(json, UserDTO.class));
+            } else if (json == null) {
+                // 空串是缓存的空值，只有null才需要查库
+                missIds.add(idList.get(i));
+            }
+        }
+        if (missIds.isEmpty()) {
+            return result;
+        }
+        // 2. 未命中的用户一次listByIds查出
+        List<UserDTO> loaded = listByIds(missIds).stream()
+                .map(user -> BeanUtil.copyProperties(user, UserDTO.class))
+                .collect(Collectors.toList());
+        loaded.forEach(user -> result.put(user.getId(), user));
+        // 3. 管道回写缓存，数据库中也不存在的写空值
+        stringRedisTemplate.executePipelined(new SessionCallback<Object>() {
+            @Override
+            @SuppressWarnings("unchecked")
+            public Object execute(RedisOperations operations) throws DataAccessException {
+                for (Long id : missIds) {
+                    UserDTO user = result.get(id);
+                    if (user == null) {
+                        operations.opsForValue().set(CACHE_USER_KEY + id, "", CACHE_NULL_TTL, TimeUnit.MINUTES);
+                    } else {
+                        operations.opsForValue().set(CACHE_USER_KEY + id, JSONUtil.toJsonStr(user),
+                                CACHE_USER_TTL, TimeUnit.MINUTES);
+                    }
+                }
+                return null;
+            }
+        });
+        return result;
+    }
+
     private User createUserWithPhone(String phone) {
         User user = new User();
         user.setPhone(phone);
         user.setNickName(USER_NICK_NAME_PREFIX + RandomUtil.randomString(7));
-        save(user);
+        try {
+            save(user);
+        } catch (DuplicateKeyException e) {
+            // 空值缓存过期前用户已被并发注册，以数据库为准
+            return query().eq("phone", phone).one();
+        }
         return user;
     }
+
+    @Override
+    public Result sign() {
+        Long userId = UserHolder.getUser().getId();
+        LocalDate today = LocalDate.now();
+        // 每个用户每月一个bitmap，第n天对应偏移量n-1
+        stringRedisTemplate.opsForValue().setBit(signKey(userId, YearMonth.from(today)), today.getDayOfMonth() - 1, true);
+        return Result.ok();
+    }
+
+    @Override
+    public Result signCount() {
+        Long userId = UserHolder.getUser().getId();
+        LocalDate today = LocalDate.now();
+        YearMonth month = YearMonth.from(today);
+        int lastDay = today.getDayOfMonth();
+        long bits = monthBits(userId, month, lastDay);
+        if ((bits & 1) == 0) {
+            // 今天还没签到，从昨天开始算
+            bits >>>= 1;
+            lastDay--;
+        }
+        int streak = 0;
+        for (int i = 0; i < SIGN_STREAK_MAX_MONTHS; i++) {
+            // 从最后一天往前数连续的1
+            int run = Math.min(Long.numberOfTrailingZeros(~bits), lastDay);
+            streak += run;
+            if (run < lastDay) {
+                break;
+            }
+            // 整月都签到了，接着查上个月
+            month = month.minusMonths(1);
+            lastDay = month.lengthOfMonth();
+            bits = monthBits(userId, month, lastDay);
+        }
+        return Result.ok(streak);
+    }
+
+    @Override
+    public Result signOfMonth(String month) {
+        Long userId = UserHolder.getUser().getId();
+        YearMonth yearMonth;
+        try {
+            yearMonth = StrUtil.isBlank(month) ? YearMonth.now() : YearMonth.parse(month, SIGN_MONTH_FORMAT);
+        } catch (DateTimeParseException e) {
+            return Result.fail("月份格式应为yyyyMM");
+        }
+        int length = yearMonth.lengthOfMonth();
+        Map<String, Object> result = new HashMap<>(4);
+        Long count = stringRedisTemplate.execute((RedisCallback<Long>) connection ->
+                connection.bitCount(signKey(userId, yearMonth).getBytes()));
+        long bits = monthBits(userId, yearMonth, length);
+        List<Integer> days = new ArrayList<>();
+        for (int day = 1; day <= length; day++) {
+            if ((bits >>> (length - day) & 1) == 1) {
+                days.add(day);
+            }
+        }
+        result.put("month", yearMonth.format(SIGN_MONTH_FORMAT));
+        // 已归档的月份redis中没有bitmap，以归档数据为准
+        result.put("count", count != null && count > 0 ? count.intValue() : days.size());
+        result.put("days", days);
+        return Result.ok(result);
+    }
+
+    /**
+     * 读取某月前days天的签到位，最高位为1号、最低位为第days天
+     * redis中没有时查询归档
+     */
+    private long monthBits(Long userId, YearMonth month, int days) {
+        if (days <= 0) {
+            return 0;
+        }
+        List<Long> values = stringRedisTemplate.opsForValue().bitField(signKey(userId, month),
+                BitFieldSubCommands.create().get(BitFieldSubCommands.BitFieldType.unsigned(days)).valueAt(0));
+        long bits = values == null || values.isEmpty() || values.get(0) == null ? 0 : values.get(0);
+        if (bits != 0 || !month.isBefore(YearMonth.now())) {
+            return bits;
+        }
+        SignMonth archived = signMonthMapper.selectOne(new QueryWrapper<SignMonth>()
+                .eq("user_id", userId).eq("month", Integer.valueOf(month.format(SIGN_MONTH_FORMAT))));
+        if (archived == null || archived.getBits() == null) {
+            return 0;
+        }
+        return (archived.getBits() & 0xFFFFFFFFL) >>> (month.lengthOfMonth() - days);
+    }
+
+    private static String signKey(Long userId, YearMonth month) {
+        return USER_SIGN_KEY + userId + ":" + month.format(SIGN_MONTH_FORMAT);
+    }
+
+    /**
+     * 每天把本月之前的签到bitmap归档到tb_sign_month，每个用户每月一行，归档后删除bitmap
+     * 每次都扫描所有月份，某次失败或被跳过时，遗留的月份在之后的运行中补归档
+     */
+    @Scheduled(cron = "0 30 3 * * ?")
+    public void archiveSignMonth() {
+        Boolean locked = stringRedisTemplate.opsForValue().setIfAbsent(LOCK_SIGN_ARCHIVE_KEY, "1", 1, TimeUnit.HOURS);
+        if (!BooleanUtil.isTrue(locked)) {
+            return;
+        }
+        YearMonth current = YearMonth.now();
+        ScanOptions options = ScanOptions.scanOptions().match(USER_SIGN_KEY + "*").count(1000).build();
+        try (Cursor<byte[]> cursor = stringRedisTemplate.execute(
+                (RedisCallback<Cursor<byte[]>>) connection -> connection.scan(options))) {
+            Map<YearMonth, List<String>> batches = new HashMap<>();
+            int archived = 0;
+            while (cursor != null && cursor.hasNext()) {
+                String key = new String(cursor.next());
+                YearMonth month = monthOfSignKey(key);
+                if (month == null || !month.isBefore(current)) {
+                    continue;
+                }
+                List<String> batch = batches.computeIfAbsent(month, m -> new ArrayList<>(SIGN_ARCHIVE_BATCH_SIZE));
+                batch.add(key);
+                if (batch.size() == SIGN_ARCHIVE_BATCH_SIZE) {
+                    archived += archiveSignBatch(batch, month);
+                    batch.clear();
+                }
+            }
+            for (Map.Entry<YearMonth, List<String>> entry : batches.entrySet()) {
+                if (!entry.getValue().isEmpty()) {
+                    archived += archiveSignBatch(entry.getValue(), entry.getKey());
+                }
+            }
+            if (archived > 0) {
+                log.info("签到归档完成，共{}个用户月份：{}", archived, batches.keySet());
+            }
+        } catch (Exception e) {
+            log.error("签到归档失败", e);
+        } finally {
+            stringRedisTemplate.delete(LOCK_SIGN_ARCHIVE_KEY);
+        }
+    }
+
+    /**
+     * 从 sign:<userId>:<yyyyMM> 中解析月份，格式不符时返回null
+     */
+    private static YearMonth monthOfSignKey(String key) {
+        int index = key.lastIndexOf(':');
+        if (index <= USER_SIGN_KEY.length() - 1) {
+            return null;
+        }
+        try {
+            return YearMonth.parse(key.substring(index + 1), SIGN_MONTH_FORMAT);
+        } catch (DateTimeParseException e) {
+            return null;
+        }
+    }
+
+    private int archiveSignBatch(List<String> keys, YearMonth month) {
+        String suffix = ":" + month.format(SIGN_MONTH_FORMAT);
+        BitFieldSubCommands wholeMonth = BitFieldSubCommands.create()
+                .get(BitFieldSubCommands.BitFieldType.unsigned(month.lengthOfMonth())).valueAt(0);
+        List<Object> results = stringRedisTemplate.executePipelined(new SessionCallback<Object>() {
+            @Override
+            @SuppressWarnings("unchecked")
+            public Object execute(RedisOperations operations) throws DataAccessException {
+                keys.forEach(key -> operations.opsForValue().bitField(key, wholeMonth));
+                return null;
+            }
+        });
+        Integer monthValue = Integer.valueOf(month.format(SIGN_MONTH_FORMAT));
+        List<SignMonth> signs = new ArrayList<>(keys.size());
+        for (int i = 0; i < keys.size(); i++) {
+            List<?> values = (List<?>) results.get(i);
+            long bits = values == null || values.isEmpty() || values.get(0) == null ? 0 : ((Number) values.get(0)).longValue();
+            if (bits == 0) {
+                continue;
+            }
+            String key = keys.get(i);
+            Long userId = Long.valueOf(key.substring(USER_SIGN_KEY.length(), key.length() - suffix.length()));
+            signs.add(new SignMonth().setUserId(userId).setMonth(monthValue).setBits((int) bits));
+        }
+        if (!signs.isEmpty()) {
+            signMonthMapper.upsertBatch(signs);
+        }
+        // 写入数据库后再删除，中途失败时bitmap还在，下次运行重新归档并覆盖
+        stringRedisTemplate.delete(keys);
+        return signs.size();
+    }
 }
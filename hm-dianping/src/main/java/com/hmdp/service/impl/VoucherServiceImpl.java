@@ -7,11 +7,20 @@ import com.hmdp.mapper.VoucherMapper;
 import com.hmdp.entity.SeckillVoucher;
 import com.hmdp.service.ISeckillVoucherService;
 import com.hmdp.service.IVoucherService;
+import com.hmdp.utils.AfterCommit;
+import com.hmdp.utils.CacheClient;
+import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
 import javax.annotation.Resource;
 import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import static com.hmdp.utils.RedisConstants.CACHE_VOUCHER_LIST_KEY;
+import static com.hmdp.utils.RedisConstants.CACHE_VOUCHER_LIST_TTL;
+import static com.hmdp.utils.RedisConstants.SECKILL_STOCK_KEY;
 
 /**
  * <p>
@@ -26,15 +35,38 @@ public class VoucherServiceImpl extends ServiceImpl<VoucherMapper, Voucher> impl
 
     @Resource
     private ISeckillVoucherService seckillVoucherService;
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+    @Resource
+    private CacheClient cacheClient;
 
     @Override
     public Result queryVoucherOfShop(Long shopId) {
-        // 查询优惠券信息
-        List<Voucher> vouchers = getBaseMapper().queryVoucherOfShop(shopId);
+        // 优惠券列表基本不变，整体缓存
+        List<Voucher> vouchers = cacheClient.queryListWithPassThrough(CACHE_VOUCHER_LIST_KEY, shopId, Voucher.class,
+                getBaseMapper()::queryVoucherOfShop, CACHE_VOUCHER_LIST_TTL, TimeUnit.MINUTES);
+        // 秒杀券的库存随时变化，一次MGET叠加redis中的实时库存
+        List<Voucher> seckillVouchers = vouchers.stream()
+                .filter(voucher -> voucher.getStock() != null).collect(Collectors.toList());
+        if (!seckillVouchers.isEmpty()) {
+            List<String> stocks = stringRedisTemplate.opsForValue().multiGet(seckillVouchers.stream()
+                    .map(voucher -> SECKILL_STOCK_KEY + voucher.getId()).collect(Collectors.toList()));
+            for (int i = 0; stocks != null && i < seckillVouchers.size(); i++) {
+                if (stocks.get(i) != null) {
+                    seckillVouchers.get(i).setStock(Integer.valueOf(stocks.get(i)));
+                }
+            }
+        }
         // 返回结果
         return Result.ok(vouchers);
     }
 
+    @Override
+    public void addVoucher(Voucher voucher) {
+        save(voucher);
+        stringRedisTemplate.delete(CACHE_VOUCHER_LIST_KEY + voucher.getShopId());
+    }
+
     @Override
     @Transactional
     public void addSeckillVoucher(Voucher voucher) {
@@ -47,5 +79,10 @@ public class VoucherServiceImpl extends ServiceImpl<VoucherMapper, Voucher> impl
         seckillVoucher.setBeginTime(voucher.getBeginTime());
         seckillVoucher.setEndTime(voucher.getEndTime());
         seckillVoucherService.save(seckillVoucher);
+        // 事务提交后库存写入redis，列表读取时以此为准；回滚时不会留下不存在的优惠券库存
+        AfterCommit.run(() -> {
+            stringRedisTemplate.opsForValue().set(SECKILL_STOCK_KEY + voucher.getId(), voucher.getStock().toString());
+            stringRedisTemplate.delete(CACHE_VOUCHER_LIST_KEY + voucher.getShopId());
+        });
     }
 }
@@ -0,0 +1,37 @@
+package com.hmdp.utils;
+
+import com.hmdp.dto.UserDTO;
+import org.springframework.web.servlet.HandlerInterceptor;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.util.Set;
+
+/*
+ * 管理端接口（/admin/**）只对配置的管理员开放：
+ * 在登录拦截器之后执行，当前用户 id 不在 hmdp.admin.user-ids 白名单中时直接返回 403。
+ * 白名单为空时所有人都无法访问，避免漏配置时统计接口对普通用户可见。
+ */
+public class AdminInterceptor implements HandlerInterceptor {
+
+    private final Set<Long> adminIds;
+
+    public AdminInterceptor(Set<Long> adminIds) {
+        this.adminIds = adminIds;
+    }
+
+    @Override
+    public boolean preHandle(HttpServletRequest request, HttpServletResponse response, Object handler) throws Exception {
+        UserDTO user = UserHolder.getUser();
+        if (user == null) {
+            response.setStatus(401);
+            return false;
+        }
+        if (!adminIds.contains(user.getId())) {
+            // 不是管理员，拒绝访问
+            response.setStatus(403);
+            return false;
+        }
+        return true;
+    }
+}
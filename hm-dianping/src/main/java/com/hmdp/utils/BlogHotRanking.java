@@ -0,0 +1,140 @@
+package com.hmdp.utils;
+
+import cn.hutool.core.collection.CollUtil;
+import com.hmdp.entity.Blog;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.dao.DataAccessException;
+import org.springframework.data.redis.core.RedisOperations;
+import org.springframework.data.redis.core.SessionCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import static com.hmdp.utils.RedisConstants.BLOG_HOT_BUILDING_KEY;
+import static com.hmdp.utils.RedisConstants.BLOG_HOT_EPOCH_KEY;
+import static com.hmdp.utils.RedisConstants.BLOG_HOT_KEY;
+
+/*
+博文热榜：
+    zset中保存博文id，分值为点赞、评论等事件按时间指数衰减后的累加值，半衰期一天
+    事件到达时增量更新，定时把所有分值折算到当前时间并截断榜单长度
+    热榜分页直接按排名取id，不再查询数据库排序
+*/
+@Component
+public class BlogHotRanking {
+    public static final double CREATE_POINTS = 1;
+    public static final double LIKE_POINTS = 1;
+    public static final double COMMENT_POINTS = 2;
+
+    private static final double LAMBDA = Math.log(2) / 86400;
+    public static final int MAX_SIZE = 10000;
+
+    private static final DefaultRedisScript<Double> HOT_INCR_SCRIPT;
+    private static final DefaultRedisScript<Long> HOT_REBASE_SCRIPT;
+    private static final DefaultRedisScript<Long> HOT_SWAP_SCRIPT;
+    static {
+        HOT_INCR_SCRIPT = new DefaultRedisScript<>();
+        HOT_INCR_SCRIPT.setLocation(new ClassPathResource("hot_incr.lua"));
+        HOT_INCR_SCRIPT.setResultType(Double.class);
+        HOT_REBASE_SCRIPT = new DefaultRedisScript<>();
+        HOT_REBASE_SCRIPT.setLocation(new ClassPathResource("hot_rebase.lua"));
+        HOT_REBASE_SCRIPT.setResultType(Long.class);
+        HOT_SWAP_SCRIPT = new DefaultRedisScript<>();
+        HOT_SWAP_SCRIPT.setLocation(new ClassPathResource("hot_swap.lua"));
+        HOT_SWAP_SCRIPT.setResultType(Long.class);
+    }
+
+    private final StringRedisTemplate stringRedisTemplate;
+
+    public BlogHotRanking(StringRedisTemplate stringRedisTemplate) {
+        this.stringRedisTemplate = stringRedisTemplate;
+    }
+
+    /**
+     * 记录一次热度事件
+     * @param blogId 博文id
+     * @param points 事件分值，取消点赞等撤销事件传负数
+     */
+    public void incr(Long blogId, double points) {
+        incr(blogId, points, System.currentTimeMillis() / 1000);
+    }
+
+    public void incr(Long blogId, double points, long eventSeconds) {
+        stringRedisTemplate.execute(HOT_INCR_SCRIPT, Arrays.asList(BLOG_HOT_KEY, BLOG_HOT_EPOCH_KEY),
+                blogId.toString(), String.valueOf(points), String.valueOf(eventSeconds), String.valueOf(LAMBDA));
+    }
+
+    /**
+     * 按排名区间查询热榜
+     * @param start 起始排名，从0开始
+     * @param size 数量
+     * @return 博文id，按热度从高到低
+     */
+    public List<Long> range(long start, int size) {
+        Set<String> ids = stringRedisTemplate.opsForZSet().reverseRange(BLOG_HOT_KEY, start, start + size - 1);
+        if (CollUtil.isEmpty(ids)) {
+            return Collections.emptyList();
+        }
+        return ids.stream().map(Long::valueOf).collect(Collectors.toList());
+    }
+
+    /**
+     * 博文在热榜中的排名，不在榜单中返回null
+     */
+    public Long rank(Long blogId) {
+        return stringRedisTemplate.opsForZSet().reverseRank(BLOG_HOT_KEY, blogId.toString());
+    }
+
+    public boolean isEmpty() {
+        Long size = stringRedisTemplate.opsForZSet().zCard(BLOG_HOT_KEY);
+        return size == null || size == 0;
+    }
+
+    /**
+     * 用数据库中的累计值重建热榜，所有事件近似看作发生在博文创建时间
+     * 先写入临时zset，写完后由脚本原子替换热榜，重建期间读到的始终是完整的旧榜单
+     * @param blogs 博文，需要id、liked、comments、createTime
+     */
+    public void rebuild(List<Blog> blogs) {
+        long now = System.currentTimeMillis() / 1000;
+        stringRedisTemplate.executePipelined(new SessionCallback<Object>() {
+            @Override
+            @SuppressWarnings("unchecked")
+            public Object execute(RedisOperations operations) throws DataAccessException {
+                operations.delete(BLOG_HOT_BUILDING_KEY);
+                for (Blog blog : blogs) {
+                    double points = CREATE_POINTS
+                            + LIKE_POINTS * (blog.getLiked() == null ? 0 : blog.getLiked())
+                            + COMMENT_POINTS * (blog.getComments() == null ? 0 : blog.getComments());
+                    double score = points * Math.exp(LAMBDA * (toSeconds(blog.getCreateTime()) - now));
+                    operations.opsForZSet().add(BLOG_HOT_BUILDING_KEY, blog.getId().toString(), score);
+                }
+                return null;
+            }
+        });
+        stringRedisTemplate.execute(HOT_SWAP_SCRIPT,
+                Arrays.asList(BLOG_HOT_KEY, BLOG_HOT_BUILDING_KEY, BLOG_HOT_EPOCH_KEY), String.valueOf(now));
+    }
+
+    /**
+     * 定时重新衰减，重复执行是幂等的，多实例无需加锁
+     */
+    @Scheduled(fixedRate = 3600000)
+    public void redecay() {
+        stringRedisTemplate.execute(HOT_REBASE_SCRIPT, Arrays.asList(BLOG_HOT_KEY, BLOG_HOT_EPOCH_KEY),
+                String.valueOf(System.currentTimeMillis() / 1000), String.valueOf(LAMBDA), String.valueOf(MAX_SIZE));
+    }
+
+    private static long toSeconds(LocalDateTime time) {
+        return time == null ? System.currentTimeMillis() / 1000 : time.atZone(ZoneId.systemDefault()).toEpochSecond();
+    }
+}
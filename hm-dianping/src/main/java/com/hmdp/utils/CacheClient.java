@@ -4,14 +4,23 @@ import cn.hutool.core.util.BooleanUtil;
 import cn.hutool.core.util.StrUtil;
 import cn.hutool.json.JSONObject;
 import cn.hutool.json.JSONUtil;
+import org.springframework.dao.DataAccessException;
+import org.springframework.data.redis.core.RedisOperations;
+import org.springframework.data.redis.core.SessionCallback;
 import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.stereotype.Component;
 
 import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
 import java.util.function.Function;
+import java.util.stream.Collectors;
 
 import static com.hmdp.utils.RedisConstants.*;
 
@@ -82,7 +91,32 @@ public class CacheClient {
         return r;
     }
 
+    /**
+     * 查询列表缓存，列表整体序列化为一个json数组，空列表同样缓存
+     * @param keyPrefix key前缀
+     * @param elementType 列表元素类型
+     * @param dbFallback 数据库查询逻辑
+     * @param time 过期时间
+     * @param unit 过期时间单位
+     * @return 列表，数据库查询结果为null时返回空列表
+     */
+    public <ID,R> List<R> queryListWithPassThrough(String keyPrefix, ID id, Class<R> elementType,
+                                                  Function<ID,List<R>> dbFallback, Long time, TimeUnit unit) {
+        String key = keyPrefix + id;
+        String json = stringRedisTemplate.opsForValue().get(key);
+        if (json != null) {
+            return JSONUtil.toList(json, elementType);
+        }
+        List<R> list = dbFallback.apply(id);
+        if (list == null) {
+            list = new ArrayList<>();
+        }
+        this.set(key, list, time, unit);
+        return list;
+    }
+
     private static final ExecutorService CACHE_REBUILD_EXECUTOR = Executors.newFixedThreadPool(10);
+    private static final String LOCK_KEY_PREFIX = "lock:";
     // 根据指定的key查询缓存，并反序列化为指定类型，需要利用逻辑过期解决缓存击穿问题
     public <ID,R> R queryWithLogicalExpire(String keyPrefix,ID id,Class<R> type,
                                            Function<ID,R> dbFallBack,Long time,TimeUnit unit) {
@@ -120,6 +154,93 @@ public class CacheClient {
         return r;
 
     }
+    /**
+     * 批量查询逻辑过期缓存：一次MGET读取，未命中的一次查库并用管道回写，
+     * 逻辑过期的仍然返回旧数据，并由独立线程批量重建
+     * @param keyPrefix key前缀
+     * @param ids id列表
+     * @param type 查询类型
+     * @param dbBatchFallback 批量查询数据库逻辑，返回id到数据的映射
+     * @param time 逻辑过期时间
+     * @param unit 过期时间单位
+     * @return 与ids顺序一致的数据，数据库中不存在的跳过
+     */
+    public <ID,R> List<R> queryBatchWithLogicalExpire(String keyPrefix, List<ID> ids, Class<R> type,
+                                                     Function<List<ID>, Map<ID, R>> dbBatchFallback,
+                                                     Long time, TimeUnit unit) {
+        if (ids.isEmpty()) {
+            return Collections.emptyList();
+        }
+        List<String> keys = ids.stream().map(id -> keyPrefix + id).collect(Collectors.toList());
+        List<String> jsons = stringRedisTemplate.opsForValue().multiGet(keys);
+        Map<ID, R> hits = new HashMap<>(ids.size() * 2);
+        List<ID> missIds = new ArrayList<>();
+        List<ID> expiredIds = new ArrayList<>();
+        LocalDateTime now = LocalDateTime.now();
+        for (int i = 0; i < ids.size(); i++) {
+            String json = jsons == null ? null : jsons.get(i);
+            if (StrUtil.isBlank(json)) {
+                missIds.add(ids.get(i));
+                continue;
+            }
+            RedisData redisData = JSONUtil.toBean(json, RedisData.class);
+            hits.put(ids.get(i), JSONUtil.toBean((JSONObject) redisData.getData(), type));
+            if (!redisData.getExpireTime().isAfter(now)) {
+                expiredIds.add(ids.get(i));
+            }
+        }
+        // 未命中的同步查库回写
+        if (!missIds.isEmpty()) {
+            Map<ID, R> loaded = dbBatchFallback.apply(missIds);
+            hits.putAll(loaded);
+            setBatchWithLogicExpire(keyPrefix, loaded, time, unit);
+        }
+        // 逻辑过期的异步重建，抢到锁的id才重建
+        List<ID> rebuildIds = expiredIds.stream()
+                .filter(id -> tryLock(LOCK_KEY_PREFIX + keyPrefix + id))
+                .collect(Collectors.toList());
+        if (!rebuildIds.isEmpty()) {
+            CACHE_REBUILD_EXECUTOR.submit(() -> {
+                try {
+                    setBatchWithLogicExpire(keyPrefix, dbBatchFallback.apply(rebuildIds), time, unit);
+                } finally {
+                    rebuildIds.forEach(id -> unlock(LOCK_KEY_PREFIX + keyPrefix + id));
+                }
+            });
+        }
+        List<R> result = new ArrayList<>(ids.size());
+        for (ID id : ids) {
+            R r = hits.get(id);
+            if (r != null) {
+                result.add(r);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * 用管道批量写入逻辑过期缓存
+     */
+    public <ID,R> void setBatchWithLogicExpire(String keyPrefix, Map<ID, R> values, Long time, TimeUnit unit) {
+        if (values.isEmpty()) {
+            return;
+        }
+        LocalDateTime expireTime = LocalDateTime.now().plusSeconds(unit.toSeconds(time));
+        stringRedisTemplate.executePipelined(new SessionCallback<Object>() {
+            @Override
+            @SuppressWarnings("unchecked")
+            public Object execute(RedisOperations operations) throws DataAccessException {
+                values.forEach((id, value) -> {
+                    RedisData redisData = new RedisData();
+                    redisData.setData(value);
+                    redisData.setExpireTime(expireTime);
+                    operations.opsForValue().set(keyPrefix + id, JSONUtil.toJsonStr(redisData));
+                });
+                return null;
+            }
+        });
+    }
+
     private boolean tryLock(String key) {
         Boolean flag = stringRedisTemplate.opsForValue().setIfAbsent(key, "1", 10, TimeUnit.SECONDS);
         return BooleanUtil.isTrue(flag);
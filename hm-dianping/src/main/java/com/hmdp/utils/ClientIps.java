@@ -0,0 +1,35 @@
+package com.hmdp.utils;
+
+import cn.hutool.core.util.StrUtil;
+
+import javax.servlet.http.HttpServletRequest;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * 解析客户端ip：请求经nginx转发时remoteAddr都是代理的地址，
+ * 只有来自受信任代理的请求才使用代理设置的X-Real-IP，其他请求的该头可以伪造，直接用remoteAddr
+ */
+public class ClientIps {
+    private static final String REAL_IP_HEADER = "X-Real-IP";
+    /**
+     * 受信任的代理地址，nginx与应用部署在同一台机器上
+     */
+    private static final Set<String> TRUSTED_PROXIES = new HashSet<>(Arrays.asList(
+            "127.0.0.1", "0:0:0:0:0:0:0:1", "::1"));
+
+    private ClientIps() {
+    }
+
+    public static String resolve(HttpServletRequest request) {
+        String remoteAddr = request.getRemoteAddr();
+        if (TRUSTED_PROXIES.contains(remoteAddr)) {
+            String realIp = request.getHeader(REAL_IP_HEADER);
+            if (StrUtil.isNotBlank(realIp)) {
+                return realIp.trim();
+            }
+        }
+        return remoteAddr;
+    }
+}
@@ -0,0 +1,140 @@
+package com.hmdp.utils;
+
+import cn.hutool.core.util.BooleanUtil;
+import com.hmdp.entity.UserInfo;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.dao.DataAccessException;
+import org.springframework.data.redis.core.RedisOperations;
+import org.springframework.data.redis.core.SessionCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.ZSetOperations;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.stereotype.Component;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import static com.hmdp.utils.RedisConstants.CREDITS_RANK_BUILDING_KEY;
+import static com.hmdp.utils.RedisConstants.CREDITS_RANK_KEY;
+import static com.hmdp.utils.RedisConstants.CREDITS_RANK_PENDING_KEY;
+import static com.hmdp.utils.RedisConstants.LOCK_CREDITS_RANK_KEY;
+
+/*
+用户积分榜：
+    zset中保存积分大于0的用户id，分值为积分，积分变化时直接写入最新积分
+    全量重建写入临时zset，完成后原子替换，重建期间的积分变化记录下来在替换后重放
+*/
+@Component
+public class CreditRanking {
+
+    private static final DefaultRedisScript<Long> SET_SCRIPT;
+    private static final DefaultRedisScript<Long> SWAP_SCRIPT;
+    static {
+        SET_SCRIPT = new DefaultRedisScript<>();
+        SET_SCRIPT.setLocation(new ClassPathResource("credit_rank_set.lua"));
+        SET_SCRIPT.setResultType(Long.class);
+        SWAP_SCRIPT = new DefaultRedisScript<>();
+        SWAP_SCRIPT.setLocation(new ClassPathResource("credit_rank_swap.lua"));
+        SWAP_SCRIPT.setResultType(Long.class);
+    }
+
+    private final StringRedisTemplate stringRedisTemplate;
+
+    public CreditRanking(StringRedisTemplate stringRedisTemplate) {
+        this.stringRedisTemplate = stringRedisTemplate;
+    }
+
+    /**
+     * 写入用户的最新积分
+     */
+    public void update(Long userId, int credits) {
+        stringRedisTemplate.execute(SET_SCRIPT,
+                Arrays.asList(CREDITS_RANK_KEY, LOCK_CREDITS_RANK_KEY, CREDITS_RANK_PENDING_KEY),
+                userId.toString(), String.valueOf(credits));
+    }
+
+    /**
+     * 用户的名次
+     * @return 从0开始，不在榜上时为null
+     */
+    public Long rankOf(Long userId) {
+        return stringRedisTemplate.opsForZSet().reverseRank(CREDITS_RANK_KEY, userId.toString());
+    }
+
+    /**
+     * 按名次区间查询
+     * @param start 起始名次，从0开始
+     * @param size 数量
+     * @return 用户id到积分的映射，按积分从高到低
+     */
+    public Map<Long, Integer> range(long start, int size) {
+        Set<ZSetOperations.TypedTuple<String>> tuples = stringRedisTemplate.opsForZSet()
+                .reverseRangeWithScores(CREDITS_RANK_KEY, start, start + size - 1);
+        if (tuples == null || tuples.isEmpty()) {
+            return Collections.emptyMap();
+        }
+        Map<Long, Integer> result = new LinkedHashMap<>(tuples.size() * 2);
+        for (ZSetOperations.TypedTuple<String> tuple : tuples) {
+            result.put(Long.valueOf(tuple.getValue()), tuple.getScore() == null ? 0 : tuple.getScore().intValue());
+        }
+        return result;
+    }
+
+    public boolean exists() {
+        return BooleanUtil.isTrue(stringRedisTemplate.hasKey(CREDITS_RANK_KEY));
+    }
+
+    /**
+     * 开始全量重建，多实例同时重建时只有一个能成功
+     */
+    public boolean beginRebuild() {
+        Boolean locked = stringRedisTemplate.opsForValue().setIfAbsent(LOCK_CREDITS_RANK_KEY, "1", 10, TimeUnit.MINUTES);
+        if (!BooleanUtil.isTrue(locked)) {
+            return false;
+        }
+        stringRedisTemplate.delete(Arrays.asList(CREDITS_RANK_BUILDING_KEY, CREDITS_RANK_PENDING_KEY));
+        return true;
+    }
+
+    /**
+     * 把一批用户写入重建中的榜单
+     */
+    public void appendRebuild(List<UserInfo> infos) {
+        stringRedisTemplate.executePipelined(new SessionCallback<Object>() {
+            @Override
+            @SuppressWarnings("unchecked")
+            public Object execute(RedisOperations operations) throws DataAccessException {
+                for (UserInfo info : infos) {
+                    if (info.getCredits() != null && info.getCredits() > 0) {
+                        operations.opsForZSet().add(CREDITS_RANK_BUILDING_KEY, info.getUserId().toString(), info.getCredits());
+                    }
+                }
+                return null;
+            }
+        });
+    }
+
+    /**
+     * 结束全量重建
+     * @param success 成功时替换榜单，失败时丢弃重建数据
+     * @return 重放的积分变化数
+     */
+    public long finishRebuild(boolean success) {
+        try {
+            if (!success) {
+                stringRedisTemplate.delete(Arrays.asList(CREDITS_RANK_BUILDING_KEY, CREDITS_RANK_PENDING_KEY));
+                return 0;
+            }
+            Long replayed = stringRedisTemplate.execute(SWAP_SCRIPT,
+                    Arrays.asList(CREDITS_RANK_KEY, CREDITS_RANK_BUILDING_KEY, CREDITS_RANK_PENDING_KEY));
+            return replayed == null ? 0 : replayed;
+        } finally {
+            stringRedisTemplate.delete(LOCK_CREDITS_RANK_KEY);
+        }
+    }
+}
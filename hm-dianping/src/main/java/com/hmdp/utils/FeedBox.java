@@ -0,0 +1,169 @@
+package com.hmdp.utils;
+
+import cn.hutool.core.collection.CollUtil;
+import com.hmdp.dto.ScrollResult;
+import org.springframework.dao.DataAccessException;
+import org.springframework.data.redis.core.RedisOperations;
+import org.springframework.data.redis.core.SessionCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.ZSetOperations;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.Set;
+
+import static com.hmdp.utils.RedisConstants.*;
+
+/*
+关注推送的收件箱/发件箱：
+    每个作者都有发件箱 feed:out:<userId>，普通作者发布时同时推送到每个粉丝的收件箱 feed:<userId>
+    粉丝数超过阈值的大V只写发件箱，粉丝读取时拉取所关注大V的发件箱，与自己的收件箱多路归并
+    收件箱、发件箱都按时间戳排序并截断长度，读取时按分值和偏移量滚动分页，不需要数据库分页
+*/
+@Component
+public class FeedBox {
+
+    private final StringRedisTemplate stringRedisTemplate;
+
+    public FeedBox(StringRedisTemplate stringRedisTemplate) {
+        this.stringRedisTemplate = stringRedisTemplate;
+    }
+
+    /**
+     * 发布博文：写入作者发件箱，并推送到粉丝的收件箱
+     * @param authorId 作者id
+     * @param blogId 博文id
+     * @param timestamp 发布时间戳
+     * @param followerIds 需要推送的粉丝，大V传空集合
+     */
+    public void publish(Long authorId, Long blogId, long timestamp, Collection<Long> followerIds) {
+        String member = blogId.toString();
+        stringRedisTemplate.executePipelined(new SessionCallback<Object>() {
+            @Override
+            @SuppressWarnings("unchecked")
+            public Object execute(RedisOperations operations) throws DataAccessException {
+                addAndTrim(operations, FEED_OUTBOX_KEY + authorId, member, timestamp);
+                for (Long followerId : followerIds) {
+                    addAndTrim(operations, FEED_KEY + followerId, member, timestamp);
+                }
+                return null;
+            }
+        });
+    }
+
+    private void addAndTrim(RedisOperations<String, String> operations, String key, String member, long timestamp) {
+        operations.opsForZSet().add(key, member, timestamp);
+        // 只保留最新的FEED_MAX_SIZE条
+        operations.opsForZSet().removeRange(key, 0, -FEED_MAX_SIZE - 1);
+    }
+
+    public void markBigV(Long authorId) {
+        stringRedisTemplate.opsForSet().add(FEED_BIG_V_KEY, authorId.toString());
+    }
+
+    /**
+     * 滚动查询关注推送
+     * @param userId 当前用户
+     * @param pullAuthorIds 需要拉取发件箱的大V
+     * @param max 上一页最小时间戳，第一页传当前时间
+     * @param offset 上一页中与最小时间戳相同的条数
+     * @param size 每页数量
+     * @return list为博文id，minTime与offset用于查询下一页
+     */
+    public ScrollResult scroll(Long userId, Collection<Long> pullAuthorIds, long max, int offset, int size) {
+        List<String> keys = new ArrayList<>(pullAuthorIds.size() + 1);
+        keys.add(FEED_KEY + userId);
+        pullAuthorIds.forEach(authorId -> keys.add(FEED_OUTBOX_KEY + authorId));
+        // 每个来源最多需要offset+size条，一个管道全部取出
+        List<Object> sources = stringRedisTemplate.executePipelined(new SessionCallback<Object>() {
+            @Override
+            @SuppressWarnings("unchecked")
+            public Object execute(RedisOperations operations) throws DataAccessException {
+                for (String key : keys) {
+                    operations.opsForZSet().reverseRangeByScoreWithScores(key, 0, max, 0, offset + size);
+                }
+                return null;
+            }
+        });
+        // 多路归并，按时间戳倒序，时间戳相同按id倒序，保证翻页时顺序稳定
+        PriorityQueue<Cursor> heap = new PriorityQueue<>();
+        for (Object source : sources) {
+            @SuppressWarnings("unchecked")
+            Set<ZSetOperations.TypedTuple<String>> tuples = (Set<ZSetOperations.TypedTuple<String>>) source;
+            if (CollUtil.isNotEmpty(tuples)) {
+                Cursor cursor = new Cursor(tuples.iterator());
+                if (cursor.advance()) {
+                    heap.add(cursor);
+                }
+            }
+        }
+        List<Long> ids = new ArrayList<>(size);
+        Set<Long> seen = new HashSet<>();
+        long minTime = max;
+        int skipped = 0;
+        int sameAsMin = 0;
+        while (!heap.isEmpty() && ids.size() < size) {
+            Cursor cursor = heap.poll();
+            long id = cursor.id;
+            long time = cursor.time;
+            if (cursor.advance()) {
+                heap.add(cursor);
+            }
+            // 大V身份变化后同一博文可能同时在收件箱和发件箱中
+            if (!seen.add(id)) {
+                continue;
+            }
+            // 跳过上一页已经返回过的、时间戳等于max的博文
+            if (time == max && skipped < offset) {
+                skipped++;
+                continue;
+            }
+            ids.add(id);
+            if (time == minTime) {
+                sameAsMin++;
+            } else {
+                minTime = time;
+                sameAsMin = 1;
+            }
+        }
+        ScrollResult result = new ScrollResult();
+        result.setList(ids);
+        result.setMinTime(minTime);
+        // 本页最小时间戳与上一页相同，需要累加上一页的偏移量
+        result.setOffset(minTime == max ? sameAsMin + offset : sameAsMin);
+        return result;
+    }
+
+    private static class Cursor implements Comparable<Cursor> {
+        private final Iterator<ZSetOperations.TypedTuple<String>> iterator;
+        private long id;
+        private long time;
+
+        private Cursor(Iterator<ZSetOperations.TypedTuple<String>> iterator) {
+            this.iterator = iterator;
+        }
+
+        private boolean advance() {
+            if (!iterator.hasNext()) {
+                return false;
+            }
+            ZSetOperations.TypedTuple<String> tuple = iterator.next();
+            id = Long.parseLong(tuple.getValue());
+            time = tuple.getScore() == null ? 0 : tuple.getScore().longValue();
+            return true;
+        }
+
+        @Override
+        public int compareTo(Cursor o) {
+            if (time != o.time) {
+                return Long.compare(o.time, time);
+            }
+            return Long.compare(o.id, id);
+        }
+    }
+}
@@ -0,0 +1,202 @@
+package com.hmdp.utils;
+
+import cn.hutool.core.util.HexUtil;
+import cn.hutool.core.util.StrUtil;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.stereotype.Component;
+import org.springframework.web.multipart.MultipartFile;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.UUID;
+import java.util.regex.Pattern;
+
+import static com.hmdp.utils.RedisConstants.IMAGE_REF_KEY;
+
+/*
+按内容寻址的图片存储：
+    上传时用NIO通道把请求体流式写入临时文件，同一遍读取中计算SHA-256
+    文件名为 /blogs/<h1h2>/<h3h4>/<h5h6>/<sha256>.<后缀>，三级256路目录，每个目录的文件数保持在较小规模
+    后缀按文件头识别，与上传时的文件名无关，相同内容只对应一个文件名
+    相同内容的图片已经存在时丢弃临时文件，直接返回已有的文件名，新图片交给ImageThumbnailer生成缩略图
+    redis中每个文件一个set，记录上传过它的用户，文件就位后加入；用户只能释放自己的引用，set为空时才删除文件和缩略图
+    图片保存在本机磁盘，引用计数与文件的增删在本机按哈希分段加锁，避免删除与重复上传交错
+*/
+@Slf4j
+@Component
+public class ImageStore {
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final int LOCK_STRIPES = 64;
+    /**
+     * 识别图片格式需要的文件头长度
+     */
+    private static final int HEADER_SIZE = 12;
+    private static final Pattern CONTENT_NAME = Pattern.compile("^/blogs/(?:[0-9a-f]{2}/){3}[0-9a-f]{64}(?:\\.[0-9a-z]{1,10})?$");
+
+    private final StringRedisTemplate stringRedisTemplate;
+    private final ImageThumbnailer imageThumbnailer;
+    private final Object[] locks = new Object[LOCK_STRIPES];
+
+    public ImageStore(StringRedisTemplate stringRedisTemplate, ImageThumbnailer imageThumbnailer) {
+        this.stringRedisTemplate = stringRedisTemplate;
+        this.imageThumbnailer = imageThumbnailer;
+        for (int i = 0; i < LOCK_STRIPES; i++) {
+            locks[i] = new Object();
+        }
+    }
+
+    /**
+     * 保存上传的图片
+     * @param userId 上传的用户
+     * @return 相对于IMAGE_UPLOAD_DIR的文件名
+     */
+    public String save(MultipartFile image, Long userId) throws IOException {
+        Path root = Paths.get(SystemConstants.IMAGE_UPLOAD_DIR);
+        Path tmpDir = root.resolve("blogs").resolve(".tmp");
+        Files.createDirectories(tmpDir);
+        Path tmp = tmpDir.resolve(UUID.randomUUID().toString());
+        MessageDigest digest = sha256();
+        byte[] header = new byte[HEADER_SIZE];
+        int headerLength = 0;
+        try {
+            try (InputStream in = image.getInputStream();
+                 ReadableByteChannel source = Channels.newChannel(in);
+                 FileChannel target = FileChannel.open(tmp, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE)) {
+                ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+                while (source.read(buffer) != -1) {
+                    buffer.flip();
+                    if (headerLength < HEADER_SIZE) {
+                        int n = Math.min(HEADER_SIZE - headerLength, buffer.remaining());
+                        buffer.duplicate().get(header, headerLength, n);
+                        headerLength += n;
+                    }
+                    digest.update(buffer.duplicate());
+                    while (buffer.hasRemaining()) {
+                        target.write(buffer);
+                    }
+                    buffer.clear();
+                }
+            }
+            String hash = HexUtil.encodeHexStr(digest.digest());
+            String name = contentName(hash, suffixOf(header, headerLength));
+            Path file = root.resolve(name.substring(1));
+            String refKey = IMAGE_REF_KEY + hash;
+            synchronized (lockOf(hash)) {
+                // 文件就位后才登记引用，移动失败时不会留下指向不存在文件的引用
+                if (Files.exists(file)) {
+                    stringRedisTemplate.opsForSet().add(refKey, userId.toString());
+                    log.debug("图片已存在，{}", name);
+                    return name;
+                }
+                Files.createDirectories(file.getParent());
+                Files.move(tmp, file, StandardCopyOption.ATOMIC_MOVE);
+                stringRedisTemplate.opsForSet().add(refKey, userId.toString());
+            }
+            // 新图片在后台生成缩略图
+            imageThumbnailer.submit(file);
+            log.debug("文件上传成功，{}", name);
+            return name;
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+
+    /**
+     * 释放用户对图片的引用，所有用户都释放后删除文件
+     * @param name save返回的文件名
+     * @param userId 释放引用的用户
+     * @return 用户没有上传过这张图片时返回false
+     */
+    public boolean release(String name, Long userId) throws IOException {
+        String hash = name.substring(name.lastIndexOf('/') + 1, name.lastIndexOf('/') + 65);
+        String refKey = IMAGE_REF_KEY + hash;
+        synchronized (lockOf(hash)) {
+            Long removed = stringRedisTemplate.opsForSet().remove(refKey, userId.toString());
+            if (removed == null || removed == 0) {
+                // 不是该用户上传的，或者引用记录缺失，保留文件
+                return false;
+            }
+            Long refs = stringRedisTemplate.opsForSet().size(refKey);
+            if (refs == null || refs > 0) {
+                return true;
+            }
+            Path file = Paths.get(SystemConstants.IMAGE_UPLOAD_DIR).resolve(name.substring(1));
+            for (Path variant : ImageThumbnailer.variantsOf(file)) {
+                Files.deleteIfExists(variant);
+            }
+            Files.deleteIfExists(file);
+            return true;
+        }
+    }
+
+    /**
+     * 是否为按内容寻址保存的文件名，之前按UUID保存的文件没有引用计数
+     */
+    public static boolean isContentName(String name) {
+        return name != null && CONTENT_NAME.matcher(name).matches();
+    }
+
+    private Object lockOf(String hash) {
+        return locks[Integer.parseInt(hash.substring(0, 2), 16) % LOCK_STRIPES];
+    }
+
+    private static String contentName(String hash, String suffix) {
+        String name = StrUtil.format("/blogs/{}/{}/{}/{}", hash.substring(0, 2), hash.substring(2, 4), hash.substring(4, 6), hash);
+        return suffix == null ? name : name + "." + suffix;
+    }
+
+    /**
+     * 按文件头识别图片格式，无法识别时返回null，文件名不带后缀
+     */
+    private static String suffixOf(byte[] header, int length) {
+        if (startsWith(header, length, 0xFF, 0xD8, 0xFF)) {
+            return "jpg";
+        }
+        if (startsWith(header, length, 0x89, 'P', 'N', 'G')) {
+            return "png";
+        }
+        if (startsWith(header, length, 'G', 'I', 'F', '8')) {
+            return "gif";
+        }
+        if (startsWith(header, length, 'B', 'M')) {
+            return "bmp";
+        }
+        if (startsWith(header, length, 'R', 'I', 'F', 'F') && length >= 12
+                && header[8] == 'W' && header[9] == 'E' && header[10] == 'B' && header[11] == 'P') {
+            return "webp";
+        }
+        return null;
+    }
+
+    private static boolean startsWith(byte[] header, int length, int... magic) {
+        if (length < magic.length) {
+            return false;
+        }
+        for (int i = 0; i < magic.length; i++) {
+            if ((header[i] & 0xFF) != magic[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
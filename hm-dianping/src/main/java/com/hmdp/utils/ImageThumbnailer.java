@@ -0,0 +1,261 @@
+package com.hmdp.utils;
+
+import cn.hutool.core.util.StrUtil;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/*
+博文图片缩略图的异步生成：
+    新图片保存后提交到有界线程池，按固定宽度生成缩略图，与原图放在同一目录，文件名为 <原名>_w<宽度>.<后缀>
+    队列满时由提交的上传线程自己处理，上传变慢而不是无限积压
+    只用JDK自带的ImageIO和Java2D，逐级减半缩放兼顾质量和速度；原图不够宽时直接复制一份，保证文件名总能访问
+    解码前先读取图片头中的尺寸，像素数超过上限的图片不解码，避免小文件解压出超大位图耗尽内存
+    原图在排队期间被删除时跳过，生成过程中被删除时清理已生成的缩略图
+    定时输出队列长度、处理耗时
+*/
+@Slf4j
+@Component
+public class ImageThumbnailer {
+    /**
+     * 缩略图宽度，像素
+     */
+    public static final int[] WIDTHS = {240, 640};
+    /**
+     * 允许解码的最大像素数，约4000万像素
+     */
+    private static final long MAX_PIXELS = 40_000_000L;
+
+    private static final int WORKERS = Math.max(1, Runtime.getRuntime().availableProcessors() / 2);
+    private static final int QUEUE_CAPACITY = 200;
+
+    private final ThreadPoolExecutor executor;
+
+    // 统计数据，每个周期输出后清零
+    private final LongAdder processed = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+    private final LongAdder callerRuns = new LongAdder();
+    private final LongAdder costTotal = new LongAdder();
+    private final LongAccumulator costMax = new LongAccumulator(Long::max, 0);
+
+    public ImageThumbnailer() {
+        AtomicInteger threadNumber = new AtomicInteger();
+        executor = new ThreadPoolExecutor(WORKERS, WORKERS, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(QUEUE_CAPACITY),
+                r -> {
+                    Thread thread = new Thread(r, "image-thumbnailer-" + threadNumber.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                },
+                (r, pool) -> {
+                    // 队列已满，由提交线程执行，形成反压
+                    if (!pool.isShutdown()) {
+                        callerRuns.increment();
+                        r.run();
+                    }
+                });
+    }
+
+    @PreDestroy
+    public void stop() {
+        executor.shutdown();
+    }
+
+    /**
+     * 提交缩略图生成任务
+     * @param original 原图文件
+     */
+    public void submit(Path original) {
+        executor.execute(() -> generate(original));
+    }
+
+    /**
+     * 原图对应的所有缩略图文件
+     */
+    public static List<Path> variantsOf(Path original) {
+        List<Path> variants = new ArrayList<>(WIDTHS.length);
+        for (int width : WIDTHS) {
+            variants.add(variantOf(original, width));
+        }
+        return variants;
+    }
+
+    private static Path variantOf(Path original, int width) {
+        String name = original.getFileName().toString();
+        int dot = name.lastIndexOf('.');
+        String variant = dot < 0 ? name + "_w" + width : name.substring(0, dot) + "_w" + width + name.substring(dot);
+        return original.resolveSibling(variant);
+    }
+
+    private void generate(Path original) {
+        long begin = System.nanoTime();
+        boolean success = false;
+        try {
+            if (!Files.exists(original)) {
+                // 排队期间图片已被删除
+                success = true;
+                return;
+            }
+            String format = formatOf(original);
+            BufferedImage image = format == null ? null : read(original);
+            if (image == null) {
+                // 不支持的格式或尺寸超过上限，不生成缩略图
+                success = true;
+                return;
+            }
+            for (int width : WIDTHS) {
+                Path target = variantOf(original, width);
+                if (Files.exists(target)) {
+                    continue;
+                }
+                Path tmp = target.resolveSibling(target.getFileName() + ".tmp");
+                try {
+                    if (image.getWidth() <= width) {
+                        Files.copy(original, tmp, StandardCopyOption.REPLACE_EXISTING);
+                    } else if (!ImageIO.write(scale(image, width, "jpeg".equals(format)), format, tmp.toFile())) {
+                        throw new IOException("没有可用的图片编码器：" + format);
+                    }
+                    Files.move(tmp, target, StandardCopyOption.ATOMIC_MOVE);
+                } finally {
+                    Files.deleteIfExists(tmp);
+                }
+            }
+            if (!Files.exists(original)) {
+                // 生成过程中图片被删除，删除时可能还没有这些缩略图
+                for (Path variant : variantsOf(original)) {
+                    Files.deleteIfExists(variant);
+                }
+            }
+            success = true;
+        } catch (Exception e) {
+            log.warn("生成缩略图失败，{}", original, e);
+        } finally {
+            if (success) {
+                processed.increment();
+            } else {
+                failed.increment();
+            }
+            long cost = System.nanoTime() - begin;
+            costTotal.add(cost);
+            costMax.accumulate(cost);
+        }
+    }
+
+    /**
+     * 先读取图片头中的尺寸，像素数不超过上限时才解码
+     * @return 图片，没有可用的解码器或尺寸超过上限时返回null
+     */
+    private static BufferedImage read(Path original) throws IOException {
+        try (ImageInputStream input = ImageIO.createImageInputStream(original.toFile())) {
+            Iterator<ImageReader> readers = input == null ? null : ImageIO.getImageReaders(input);
+            if (readers == null || !readers.hasNext()) {
+                return null;
+            }
+            ImageReader reader = readers.next();
+            try {
+                reader.setInput(input, true, true);
+                long pixels = (long) reader.getWidth(0) * reader.getHeight(0);
+                if (pixels > MAX_PIXELS) {
+                    log.warn("图片像素数{}超过上限，不生成缩略图，{}", pixels, original);
+                    return null;
+                }
+                return reader.read(0);
+            } finally {
+                reader.dispose();
+            }
+        }
+    }
+
+    /**
+     * 逐级减半缩放到目标宽度，每级用双线性插值
+     */
+    private static BufferedImage scale(BufferedImage source, int targetWidth, boolean opaque) {
+        int type = opaque || !source.getColorModel().hasAlpha() ? BufferedImage.TYPE_INT_RGB : BufferedImage.TYPE_INT_ARGB;
+        int targetHeight = Math.max(1, (int) Math.round((double) source.getHeight() * targetWidth / source.getWidth()));
+        BufferedImage current = source;
+        int width = source.getWidth();
+        int height = source.getHeight();
+        do {
+            width = Math.max(width / 2, targetWidth);
+            height = Math.max(height / 2, targetHeight);
+            BufferedImage next = new BufferedImage(width, height, type);
+            Graphics2D g = next.createGraphics();
+            try {
+                g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+                g.drawImage(current, 0, 0, width, height, null);
+            } finally {
+                g.dispose();
+            }
+            current = next;
+        } while (width != targetWidth || height != targetHeight);
+        return current;
+    }
+
+    private static String formatOf(Path original) {
+        String suffix = StrUtil.subAfter(original.getFileName().toString(), ".", true).toLowerCase(Locale.ROOT);
+        switch (suffix) {
+            case "jpg":
+            case "jpeg":
+                return "jpeg";
+            case "png":
+            case "gif":
+            case "bmp":
+                return suffix;
+            default:
+                return null;
+        }
+    }
+
+    public Map<String, Object> stats() {
+        Map<String, Object> stats = new HashMap<>(8);
+        stats.put("queueDepth", executor.getQueue().size());
+        stats.put("active", executor.getActiveCount());
+        stats.put("completed", executor.getCompletedTaskCount());
+        // 以下为本统计周期内的数据
+        long count = processed.sum() + failed.sum();
+        stats.put("failed", failed.sum());
+        stats.put("callerRuns", callerRuns.sum());
+        stats.put("avgCostMillis", count == 0 ? 0 : costTotal.sum() / count / 1000000);
+        stats.put("maxCostMillis", costMax.get() / 1000000);
+        return stats;
+    }
+
+    @Scheduled(fixedRate = 60000)
+    public void report() {
+        long processedCount = processed.sumThenReset();
+        long failedCount = failed.sumThenReset();
+        long callerRunsCount = callerRuns.sumThenReset();
+        long cost = costTotal.sumThenReset();
+        long max = costMax.getThenReset();
+        if (processedCount + failedCount == 0 && executor.getQueue().isEmpty()) {
+            return;
+        }
+        log.info("缩略图队列：积压{}，完成{}，失败{}，提交线程执行{}，平均耗时{}ms，最大耗时{}ms",
+                executor.getQueue().size(), processedCount, failedCount, callerRunsCount,
+                cost / Math.max(processedCount + failedCount, 1) / 1000000, max / 1000000);
+    }
+}
@@ -0,0 +1,11 @@
+package com.hmdp.utils;
+
+/**
+ * 客户端传来的分页游标无法解析，由WebExceptionAdvice转换为失败结果返回
+ */
+public class InvalidCursorException extends RuntimeException {
+
+    public InvalidCursorException() {
+        super("无效的分页游标");
+    }
+}
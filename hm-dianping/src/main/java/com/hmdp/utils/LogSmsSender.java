@@ -0,0 +1,21 @@
+package com.hmdp.utils;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+
+/**
+ * 本地调试用的短信网关，只打印验证码
+ */
+@Slf4j
+@Component
+public class LogSmsSender implements SmsSender {
+
+    @Override
+    public void send(List<SmsMessage> messages) {
+        for (SmsMessage message : messages) {
+            log.debug("将code通过短信方式发送:{} -> {}", message.getPhone(), message.getCode());
+        }
+    }
+}
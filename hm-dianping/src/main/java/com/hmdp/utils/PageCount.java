@@ -0,0 +1,36 @@
+package com.hmdp.utils;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * 分页查询的总数统计方式，标注在mapper接口上对其所有分页方法生效，标注在方法上只对该方法生效
+ * 没有标注的分页查询按EXACT处理
+ */
+@Target({ElementType.TYPE, ElementType.METHOD})
+@Retention(RetentionPolicy.RUNTIME)
+public @interface PageCount {
+
+    Policy value();
+
+    enum Policy {
+        /**
+         * 每次执行COUNT(*)
+         */
+        EXACT,
+        /**
+         * 不统计总数，total为0
+         */
+        NONE,
+        /**
+         * 按SQL和参数缓存COUNT(*)结果，短时间内可能不准
+         */
+        CACHED,
+        /**
+         * 最多数到PageCountInterceptor.APPROXIMATE_CAP条，超过时total为上限值
+         */
+        APPROXIMATE
+    }
+}
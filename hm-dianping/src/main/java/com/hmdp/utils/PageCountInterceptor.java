@@ -0,0 +1,195 @@
+package com.hmdp.utils;
+
+import cn.hutool.crypto.SecureUtil;
+import com.baomidou.mybatisplus.annotation.DbType;
+import com.baomidou.mybatisplus.core.metadata.IPage;
+import com.baomidou.mybatisplus.core.toolkit.ParameterUtils;
+import com.baomidou.mybatisplus.core.toolkit.PluginUtils;
+import com.baomidou.mybatisplus.extension.plugins.inner.PaginationInnerInterceptor;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.ibatis.cache.CacheKey;
+import org.apache.ibatis.executor.Executor;
+import org.apache.ibatis.mapping.BoundSql;
+import org.apache.ibatis.mapping.MappedStatement;
+import org.apache.ibatis.mapping.ParameterMapping;
+import org.apache.ibatis.reflection.MetaObject;
+import org.apache.ibatis.session.Configuration;
+import org.apache.ibatis.session.ResultHandler;
+import org.apache.ibatis.session.RowBounds;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+
+import java.lang.reflect.Method;
+import java.sql.SQLException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import static com.hmdp.utils.RedisConstants.CACHE_PAGE_COUNT_KEY;
+import static com.hmdp.utils.RedisConstants.CACHE_PAGE_COUNT_TTL;
+
+/*
+按mapper方法选择总数统计方式的分页插件：
+    分页查询的mapper方法或mapper接口上标注@PageCount，没有标注时与PaginationInnerInterceptor一致
+    NONE直接跳过COUNT；CACHED以SQL和参数值的摘要为key把总数缓存到redis，命中时仍执行数据查询；APPROXIMATE只数到上限为止
+    定时输出各方式的次数
+*/
+@Slf4j
+public class PageCountInterceptor extends PaginationInnerInterceptor {
+    public static final long APPROXIMATE_CAP = 1000;
+
+    private final StringRedisTemplate stringRedisTemplate;
+    private final Map<String, PageCount.Policy> policies = new ConcurrentHashMap<>();
+
+    // 统计数据，每个周期输出后清零
+    private final LongAdder exact = new LongAdder();
+    private final LongAdder skipped = new LongAdder();
+    private final LongAdder cacheHits = new LongAdder();
+    private final LongAdder cacheMisses = new LongAdder();
+    private final LongAdder approximate = new LongAdder();
+
+    public PageCountInterceptor(DbType dbType, StringRedisTemplate stringRedisTemplate) {
+        super(dbType);
+        this.stringRedisTemplate = stringRedisTemplate;
+    }
+
+    @Override
+    public boolean willDoQuery(Executor executor, MappedStatement ms, Object parameter, RowBounds rowBounds,
+                               ResultHandler resultHandler, BoundSql boundSql) throws SQLException {
+        IPage<?> page = ParameterUtils.findPage(parameter).orElse(null);
+        if (page == null || page.getSize() < 0 || !page.searchCount()) {
+            return true;
+        }
+        switch (policyOf(ms.getId())) {
+            case NONE:
+                skipped.increment();
+                return true;
+            case CACHED:
+                return cachedCount(executor, ms, parameter, rowBounds, resultHandler, boundSql, page);
+            case APPROXIMATE:
+                approximate.increment();
+                return approximateCount(executor, ms, parameter, rowBounds, resultHandler, boundSql, page);
+            default:
+                exact.increment();
+                return super.willDoQuery(executor, ms, parameter, rowBounds, resultHandler, boundSql);
+        }
+    }
+
+    private boolean cachedCount(Executor executor, MappedStatement ms, Object parameter, RowBounds rowBounds,
+                                ResultHandler resultHandler, BoundSql boundSql, IPage<?> page) throws SQLException {
+        String key = null;
+        try {
+            key = CACHE_PAGE_COUNT_KEY + ms.getId() + ":" + digest(ms.getConfiguration(), boundSql);
+            String cached = stringRedisTemplate.opsForValue().get(key);
+            if (cached != null) {
+                cacheHits.increment();
+                page.setTotal(Long.parseLong(cached));
+                // 缓存的总数可能已经过期，不能据此跳过末页，数据查询总是执行
+                return true;
+            }
+        } catch (Exception e) {
+            log.warn("读取分页总数缓存失败，{}", ms.getId(), e);
+        }
+        cacheMisses.increment();
+        boolean result = super.willDoQuery(executor, ms, parameter, rowBounds, resultHandler, boundSql);
+        // 总数为0时会直接跳过查询，不缓存，避免新数据在缓存期内查不出来
+        if (key != null && page.getTotal() > 0) {
+            try {
+                stringRedisTemplate.opsForValue().set(key, String.valueOf(page.getTotal()), CACHE_PAGE_COUNT_TTL, TimeUnit.SECONDS);
+            } catch (Exception e) {
+                log.warn("写入分页总数缓存失败，{}", ms.getId(), e);
+            }
+        }
+        return result;
+    }
+
+    private boolean approximateCount(Executor executor, MappedStatement ms, Object parameter, RowBounds rowBounds,
+                                     ResultHandler resultHandler, BoundSql boundSql, IPage<?> page) throws SQLException {
+        MappedStatement countMs = buildAutoCountMappedStatement(ms);
+        String sql = "SELECT COUNT(*) FROM (" + boundSql.getSql() + " LIMIT " + APPROXIMATE_CAP + ") approximate_count";
+        PluginUtils.MPBoundSql mpBoundSql = PluginUtils.mpBoundSql(boundSql);
+        BoundSql countSql = new BoundSql(countMs.getConfiguration(), sql, mpBoundSql.parameterMappings(), parameter);
+        PluginUtils.setAdditionalParameter(countSql, mpBoundSql.additionalParameters());
+        CacheKey cacheKey = executor.createCacheKey(countMs, parameter, rowBounds, countSql);
+        List<Object> result = executor.query(countMs, parameter, rowBounds, resultHandler, cacheKey, countSql);
+        long total = result.isEmpty() || result.get(0) == null ? 0 : Long.parseLong(result.get(0).toString());
+        page.setTotal(total);
+        // 数到上限说明实际更多，后面的页也要继续查询
+        return total >= APPROXIMATE_CAP || continuePage(page);
+    }
+
+    /**
+     * 压缩空白后的SQL与各参数值的摘要
+     */
+    private static String digest(Configuration configuration, BoundSql boundSql) {
+        StringBuilder sb = new StringBuilder(boundSql.getSql().replaceAll("\\s+", " ").trim());
+        Object parameter = boundSql.getParameterObject();
+        MetaObject metaObject = parameter == null ? null : configuration.newMetaObject(parameter);
+        for (ParameterMapping mapping : boundSql.getParameterMappings()) {
+            String property = mapping.getProperty();
+            Object value;
+            if (boundSql.hasAdditionalParameter(property)) {
+                value = boundSql.getAdditionalParameter(property);
+            } else if (parameter == null) {
+                value = null;
+            } else if (configuration.getTypeHandlerRegistry().hasTypeHandler(parameter.getClass())) {
+                value = parameter;
+            } else {
+                value = metaObject.getValue(property);
+            }
+            sb.append('\u0001').append(value);
+        }
+        return SecureUtil.md5(sb.toString());
+    }
+
+    /**
+     * 方法上的注解优先于mapper接口上的注解，解析结果按MappedStatement缓存
+     */
+    private PageCount.Policy policyOf(String statementId) {
+        return policies.computeIfAbsent(statementId, id -> {
+            int dot = id.lastIndexOf('.');
+            try {
+                Class<?> mapper = Class.forName(id.substring(0, dot));
+                String methodName = id.substring(dot + 1);
+                for (Method method : mapper.getMethods()) {
+                    PageCount annotation = method.getAnnotation(PageCount.class);
+                    if (annotation != null && method.getName().equals(methodName)
+                            && method.getDeclaringClass() == mapper) {
+                        return annotation.value();
+                    }
+                }
+                PageCount annotation = mapper.getAnnotation(PageCount.class);
+                return annotation == null ? PageCount.Policy.EXACT : annotation.value();
+            } catch (ClassNotFoundException e) {
+                return PageCount.Policy.EXACT;
+            }
+        });
+    }
+
+    public Map<String, Long> stats() {
+        Map<String, Long> stats = new HashMap<>(8);
+        stats.put("exact", exact.sum());
+        stats.put("skipped", skipped.sum());
+        stats.put("cacheHits", cacheHits.sum());
+        stats.put("cacheMisses", cacheMisses.sum());
+        stats.put("approximate", approximate.sum());
+        return stats;
+    }
+
+    @Scheduled(fixedRate = 60000)
+    public void report() {
+        long exactCount = exact.sumThenReset();
+        long skippedCount = skipped.sumThenReset();
+        long hits = cacheHits.sumThenReset();
+        long misses = cacheMisses.sumThenReset();
+        long approximateCount = approximate.sumThenReset();
+        if (exactCount + skippedCount + hits + misses + approximateCount == 0) {
+            return;
+        }
+        log.info("分页总数：精确{}，跳过{}，缓存命中{}，缓存未命中{}，近似{}",
+                exactCount, skippedCount, hits, misses, approximateCount);
+    }
+}
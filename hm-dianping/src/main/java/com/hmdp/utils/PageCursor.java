@@ -0,0 +1,61 @@
+package com.hmdp.utils;
+
+import cn.hutool.core.codec.Base64;
+import cn.hutool.core.util.StrUtil;
+import lombok.Getter;
+
+/**
+ * 游标分页的游标，记录上一页最后一条数据的排序值和id，
+ * 编码成不透明的字符串交给客户端，下一页用 WHERE (sort, id) < (?, ?) 走索引定位，不需要OFFSET和COUNT
+ */
+@Getter
+public class PageCursor {
+    private static final String SEPARATOR = ":";
+
+    /**
+     * 排序值，按id排序时为null
+     */
+    private final String sortKey;
+    private final Long id;
+
+    private PageCursor(String sortKey, Long id) {
+        this.sortKey = sortKey;
+        this.id = id;
+    }
+
+    public static String encode(Long id) {
+        return encode(null, id);
+    }
+
+    public static String encode(Object sortKey, Long id) {
+        String raw = (sortKey == null ? "" : sortKey.toString()) + SEPARATOR + id;
+        return Base64.encodeUrlSafe(raw);
+    }
+
+    /**
+     * 解析客户端传来的游标
+     * @param cursor 游标，空串表示第一页
+     * @return 第一页返回null
+     */
+    public static PageCursor decode(String cursor) {
+        if (StrUtil.isBlank(cursor)) {
+            return null;
+        }
+        try {
+            String raw = Base64.decodeStr(cursor);
+            int index = raw.lastIndexOf(SEPARATOR);
+            String sortKey = raw.substring(0, index);
+            return new PageCursor(sortKey.isEmpty() ? null : sortKey, Long.valueOf(raw.substring(index + 1)));
+        } catch (RuntimeException e) {
+            throw new InvalidCursorException();
+        }
+    }
+
+    public long sortKeyAsLong() {
+        try {
+            return Long.parseLong(sortKey);
+        } catch (NumberFormatException e) {
+            throw new InvalidCursorException();
+        }
+    }
+}
@@ -3,21 +3,77 @@ package com.hmdp.utils;
 public class RedisConstants {
     public static final String LOGIN_CODE_KEY = "login:code:";
     public static final Long LOGIN_CODE_TTL = 2L;
+    public static final String SMS_COOLDOWN_KEY = "sms:cooldown:";
+    public static final Long SMS_COOLDOWN_TTL = 60L;
+    public static final String SMS_PHONE_DAY_KEY = "sms:day:phone:";
+    public static final String SMS_IP_DAY_KEY = "sms:day:ip:";
+    public static final Long SMS_PHONE_DAY_LIMIT = 10L;
+    public static final Long SMS_IP_DAY_LIMIT = 50L;
     public static final String LOGIN_USER_KEY = "login:token:";
     public static final Long LOGIN_USER_TTL = 30L;
 
+    public static final String CACHE_USER_KEY = "cache:user:";
+    public static final Long CACHE_USER_TTL = 30L;
+    public static final String CACHE_USER_PHONE_KEY = "cache:user:phone:";
+    public static final Long CACHE_USER_PHONE_TTL = 60 * 24L;
+
     public static final Long CACHE_NULL_TTL = 2L;
 
     public static final Long CACHE_SHOP_TTL = 30L;
     public static final String CACHE_SHOP_KEY = "cache:shop:";
+    public static final String CACHE_SHOP_LIST_KEY = "cache:shop:list:";
+    public static final String CACHE_SHOP_LIST_KEYS_KEY = "cache:shop:list-keys:";
+    public static final Long CACHE_SHOP_LIST_TTL = 2L;
+    public static final String SHOP_COUNTER_DELTA_KEY = "shop:counter:delta";
+    public static final String SHOP_COUNTER_FLUSHING_KEY = "shop:counter:delta:flushing";
+    public static final String LOCK_SHOP_COUNTER_FLUSH_KEY = "lock:shop:counter:flush";
+    public static final String CACHE_PAGE_COUNT_KEY = "cache:page-count:";
+    public static final Long CACHE_PAGE_COUNT_TTL = 60L;
     public static final String CACHE_SHOPTYPE_KEY = "cache:shoptype";
+    public static final String CACHE_SHOPTYPE_VERSION_KEY = "cache:shoptype:version";
 
     public static final String LOCK_SHOP_KEY = "lock:shop:";
     public static final Long LOCK_SHOP_TTL = 10L;
 
     public static final String SECKILL_STOCK_KEY = "seckill:stock:";
+    public static final String CACHE_VOUCHER_LIST_KEY = "cache:voucher:list:";
+    public static final Long CACHE_VOUCHER_LIST_TTL = 30L;
+    public static final String CACHE_BLOG_KEY = "cache:blog:";
+    public static final Long CACHE_BLOG_TTL = 30L;
+    public static final String CACHE_BLOG_SUMMARY_KEY = "cache:blog:summary:";
+
+    public static final String CACHE_BLOG_COMMENTS_KEY = "cache:blog:comments:";
+    public static final Long CACHE_BLOG_COMMENTS_TTL = 10L;
+
+    public static final String BLOG_HOT_KEY = "blog:hot";
+    public static final String BLOG_HOT_EPOCH_KEY = "blog:hot:epoch";
+    public static final String BLOG_HOT_BUILDING_KEY = "blog:hot:building";
+    public static final String LOCK_BLOG_HOT_KEY = "lock:blog:hot";
+
     public static final String BLOG_LIKED_KEY = "blog:liked:";
+    public static final String BLOG_LIKE_DELTA_KEY = "blog:like:delta";
+    public static final String BLOG_LIKE_FLUSHING_KEY = "blog:like:delta:flushing";
+    public static final String LOCK_BLOG_LIKE_FLUSH_KEY = "lock:blog:like:flush";
+    public static final String FOLLOWS_KEY = "follows:";
+    public static final String FOLLOW_DIRTY_KEY = "follow:dirty";
+
     public static final String FEED_KEY = "feed:";
+    public static final String FEED_OUTBOX_KEY = "feed:out:";
+    public static final String FEED_BIG_V_KEY = "feed:bigv";
+    public static final Long FEED_MAX_SIZE = 1000L;
+    public static final Long FEED_BIG_V_FANS = 5000L;
     public static final String SHOP_GEO_KEY = "shop:geo:";
+    public static final String SHOP_GEO_READY_KEY = "shop:geo-ready";
+    public static final String LOCK_SHOP_GEO_KEY = "lock:shop:geo";
     public static final String USER_SIGN_KEY = "sign:";
+    public static final String LOCK_SIGN_ARCHIVE_KEY = "lock:sign:archive";
+    public static final String CREDITS_RANK_KEY = "rank:credits";
+    public static final String CREDITS_RANK_BUILDING_KEY = "rank:credits:building";
+    public static final String CREDITS_RANK_PENDING_KEY = "rank:credits:pending";
+    public static final String LOCK_CREDITS_RANK_KEY = "lock:rank:credits";
+    public static final String IMAGE_REF_KEY = "image:ref:";
+    public static final String UV_KEY = "uv:";
+    public static final Long UV_DAY_TTL = 62L;
+    public static final Long UV_ROLLUP_TTL = 400L;
+    public static final Long UV_OPEN_ROLLUP_TTL = 5L;
 }
@@ -0,0 +1,154 @@
+package com.hmdp.utils;
+
+import com.hmdp.entity.Shop;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.dao.DataAccessException;
+import org.springframework.data.redis.core.RedisOperations;
+import org.springframework.data.redis.core.SessionCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+
+import static com.hmdp.utils.RedisConstants.SHOP_COUNTER_DELTA_KEY;
+import static com.hmdp.utils.RedisConstants.SHOP_COUNTER_FLUSHING_KEY;
+
+/*
+商铺计数（销量、评论数）的写后聚合：
+    请求线程只累加到本机的LongAdder，每秒汇总一次HINCRBY到redis的增量hash，字段为 <shopId>:<列名>
+    由ShopServiceImpl定时把增量hash换成刷库中的hash（日志），分批UPDATE后再删除字段，
+    刷库与删除之间失败会重放，保证至少一次
+    读取商铺时叠加本机、增量hash、刷库中hash三处尚未写入数据库的增量
+*/
+@Slf4j
+@Component
+public class ShopCounters {
+
+    public enum Counter {
+        SOLD("sold", Shop::getSold, Shop::setSold),
+        COMMENTS("comments", Shop::getComments, Shop::setComments);
+
+        private final String column;
+        private final Function<Shop, Integer> getter;
+        private final BiConsumer<Shop, Integer> setter;
+
+        Counter(String column, Function<Shop, Integer> getter, BiConsumer<Shop, Integer> setter) {
+            this.column = column;
+            this.getter = getter;
+            this.setter = setter;
+        }
+
+        public String getColumn() {
+            return column;
+        }
+
+        public static Counter ofColumn(String column) {
+            for (Counter counter : values()) {
+                if (counter.column.equals(column)) {
+                    return counter;
+                }
+            }
+            return null;
+        }
+    }
+
+    private final StringRedisTemplate stringRedisTemplate;
+    private final Map<String, LongAdder> local = new ConcurrentHashMap<>();
+
+    public ShopCounters(StringRedisTemplate stringRedisTemplate) {
+        this.stringRedisTemplate = stringRedisTemplate;
+    }
+
+    public void incr(Long shopId, Counter counter, long delta) {
+        local.computeIfAbsent(field(shopId, counter), k -> new LongAdder()).add(delta);
+    }
+
+    private static String field(Long shopId, Counter counter) {
+        return shopId + ":" + counter.column;
+    }
+
+    /**
+     * 本机累加的增量汇总到redis，写入失败时加回本机，下次重试
+     */
+    @Scheduled(fixedDelay = 1000)
+    @PreDestroy
+    public void drain() {
+        Map<String, Long> deltas = new HashMap<>();
+        local.forEach((field, adder) -> {
+            // sumThenReset在Java 8中读取与清零不是原子的，期间的累加会丢失；减去读到的值，并发的累加留到下一轮
+            long delta = adder.sum();
+            if (delta != 0) {
+                adder.add(-delta);
+                deltas.put(field, delta);
+            }
+        });
+        if (deltas.isEmpty()) {
+            return;
+        }
+        try {
+            stringRedisTemplate.executePipelined(new SessionCallback<Object>() {
+                @Override
+                @SuppressWarnings("unchecked")
+                public Object execute(RedisOperations operations) throws DataAccessException {
+                    deltas.forEach((field, delta) -> operations.opsForHash().increment(SHOP_COUNTER_DELTA_KEY, field, delta));
+                    return null;
+                }
+            });
+        } catch (Exception e) {
+            log.warn("商铺计数汇总到redis失败，{}个字段留待重试", deltas.size(), e);
+            deltas.forEach((field, delta) -> local.computeIfAbsent(field, k -> new LongAdder()).add(delta));
+        }
+    }
+
+    /**
+     * 在数据库计数的基础上叠加尚未刷库的增量
+     * @param shops 商铺列表
+     */
+    public void fillPending(List<Shop> shops) {
+        if (shops.isEmpty()) {
+            return;
+        }
+        List<Object> fields = new ArrayList<>(shops.size() * Counter.values().length);
+        for (Shop shop : shops) {
+            for (Counter counter : Counter.values()) {
+                fields.add(field(shop.getId(), counter));
+            }
+        }
+        List<Object> results = stringRedisTemplate.executePipelined(new SessionCallback<Object>() {
+            @Override
+            @SuppressWarnings("unchecked")
+            public Object execute(RedisOperations operations) throws DataAccessException {
+                operations.opsForHash().multiGet(SHOP_COUNTER_DELTA_KEY, fields);
+                operations.opsForHash().multiGet(SHOP_COUNTER_FLUSHING_KEY, fields);
+                return null;
+            }
+        });
+        List<?> pending = (List<?>) results.get(0);
+        List<?> flushing = (List<?>) results.get(1);
+        int i = 0;
+        for (Shop shop : shops) {
+            for (Counter counter : Counter.values()) {
+                LongAdder adder = local.get(fields.get(i).toString());
+                long delta = parse(pending.get(i)) + parse(flushing.get(i)) + (adder == null ? 0 : adder.sum());
+                i++;
+                if (delta != 0) {
+                    Integer value = counter.getter.apply(shop);
+                    counter.setter.accept(shop, (int) Math.max((value == null ? 0 : value) + delta, 0));
+                }
+            }
+        }
+    }
+
+    private static long parse(Object value) {
+        return value == null ? 0 : Long.parseLong(value.toString());
+    }
+}
@@ -0,0 +1,100 @@
+package com.hmdp.utils;
+
+import com.hmdp.entity.Shop;
+import org.springframework.dao.DataAccessException;
+import org.springframework.data.geo.Distance;
+import org.springframework.data.geo.GeoResult;
+import org.springframework.data.geo.GeoResults;
+import org.springframework.data.geo.Point;
+import org.springframework.data.redis.connection.RedisGeoCommands;
+import org.springframework.data.redis.core.RedisOperations;
+import org.springframework.data.redis.core.SessionCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.domain.geo.GeoReference;
+import org.springframework.stereotype.Component;
+
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static com.hmdp.utils.RedisConstants.SHOP_GEO_KEY;
+
+/*
+商铺地理位置索引：
+    每种商铺类型一个GEO集合 shop:geo:<typeId>，成员为商铺id
+    附近商铺按距离升序GEOSEARCH，分页时只取到当前页末尾，再跳过前面的页
+*/
+@Component
+public class ShopGeoIndex {
+
+    private final StringRedisTemplate stringRedisTemplate;
+
+    public ShopGeoIndex(StringRedisTemplate stringRedisTemplate) {
+        this.stringRedisTemplate = stringRedisTemplate;
+    }
+
+    public void add(Shop shop) {
+        if (shop.getTypeId() == null || shop.getX() == null || shop.getY() == null) {
+            return;
+        }
+        stringRedisTemplate.opsForGeo().add(SHOP_GEO_KEY + shop.getTypeId(),
+                new Point(shop.getX(), shop.getY()), shop.getId().toString());
+    }
+
+    public void remove(Long typeId, Long shopId) {
+        stringRedisTemplate.opsForGeo().remove(SHOP_GEO_KEY + typeId, shopId.toString());
+    }
+
+    /**
+     * 批量写入索引，一个管道完成
+     * @param shops 商铺，需要id、typeId、x、y
+     */
+    public void addAll(Collection<Shop> shops) {
+        if (shops.isEmpty()) {
+            return;
+        }
+        stringRedisTemplate.executePipelined(new SessionCallback<Object>() {
+            @Override
+            @SuppressWarnings("unchecked")
+            public Object execute(RedisOperations operations) throws DataAccessException {
+                for (Shop shop : shops) {
+                    if (shop.getTypeId() == null || shop.getX() == null || shop.getY() == null) {
+                        continue;
+                    }
+                    operations.opsForGeo().add(SHOP_GEO_KEY + shop.getTypeId(),
+                            new Point(shop.getX(), shop.getY()), shop.getId().toString());
+                }
+                return null;
+            }
+        });
+    }
+
+    /**
+     * 按距离分页查询附近的商铺
+     * @param typeId 商铺类型
+     * @param x 经度
+     * @param y 纬度
+     * @param radiusMeters 搜索半径，米
+     * @param from 跳过的条数
+     * @param size 每页数量
+     * @return 商铺id到距离（米）的映射，按距离升序
+     */
+    public Map<Long, Double> search(Integer typeId, double x, double y, double radiusMeters, int from, int size) {
+        RedisGeoCommands.GeoSearchCommandArgs args = RedisGeoCommands.GeoSearchCommandArgs.newGeoSearchArgs()
+                .includeDistance().sortAscending().limit(from + size);
+        GeoResults<RedisGeoCommands.GeoLocation<String>> results = stringRedisTemplate.opsForGeo().search(
+                SHOP_GEO_KEY + typeId, GeoReference.fromCoordinate(x, y),
+                new Distance(radiusMeters, RedisGeoCommands.DistanceUnit.METERS), args);
+        Map<Long, Double> distances = new LinkedHashMap<>(size * 2);
+        if (results == null) {
+            return distances;
+        }
+        List<GeoResult<RedisGeoCommands.GeoLocation<String>>> content = results.getContent();
+        for (int i = Math.max(from, 0); i < content.size(); i++) {
+            GeoResult<RedisGeoCommands.GeoLocation<String>> result = content.get(i);
+            distances.put(Long.valueOf(result.getContent().getName()), result.getDistance().getValue());
+        }
+        return distances;
+    }
+}
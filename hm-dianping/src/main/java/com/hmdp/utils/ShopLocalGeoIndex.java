@@ -0,0 +1,343 @@
+package com.hmdp.utils;
+
+import com.hmdp.entity.Shop;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+/*
+进程内的商铺地理位置索引：
+    按商铺类型分区，每个分区是不可变的网格快照，坐标、id都存放在按网格排序的基本类型数组中
+    查询时按半径算出覆盖的网格列，每一列二分定位后顺序扫描，全程没有网络开销和对象分配以外的开销
+    全量重建在后台完成后整体替换，从开始读取商铺起的增量在替换前重放；单个商铺变化时复制分区后替换，读操作不加锁
+    距离计算使用与redis相同的地球半径，结果与GEOSEARCH一致
+*/
+@Component
+public class ShopLocalGeoIndex {
+    /**
+     * 网格边长，度，约1公里
+     */
+    private static final double CELL_DEGREES = 0.01;
+    /**
+     * 网格坐标偏移，保证打包后的网格key按列、行有序
+     */
+    private static final int CELL_OFFSET = 1 << 20;
+    private static final double EARTH_RADIUS_METERS = 6372797.560856;
+    private static final double METERS_PER_DEGREE = EARTH_RADIUS_METERS * Math.PI / 180;
+    /**
+     * k近邻查询的初始半径和最大半径，米
+     */
+    private static final double KNN_START_RADIUS = 1000;
+    private static final double KNN_MAX_RADIUS = 100000;
+
+    private volatile Map<Long, Partition> partitions = Collections.emptyMap();
+    private volatile boolean ready;
+    private List<Shop> pendingDuringRebuild;
+
+    /**
+     * 是否已经完成过全量构建，之前查询应退回redis
+     */
+    public boolean isReady() {
+        return ready;
+    }
+
+    /**
+     * 开始记录增量，需要在读取全量商铺之前调用，读取期间的变化在rebuild时重放
+     */
+    public synchronized void beginRebuild() {
+        pendingDuringRebuild = new ArrayList<>();
+    }
+
+    /**
+     * 读取全量商铺失败时放弃本次重建，停止记录增量
+     */
+    public synchronized void cancelRebuild() {
+        pendingDuringRebuild = null;
+    }
+
+    /**
+     * 用全部商铺重建索引
+     * @param shops 商铺，需要id、typeId、x、y
+     */
+    public synchronized void rebuild(Collection<Shop> shops) {
+        Map<Long, List<Shop>> byType = shops.stream()
+                .filter(shop -> shop.getTypeId() != null && shop.getX() != null && shop.getY() != null)
+                .collect(Collectors.groupingBy(Shop::getTypeId));
+        Map<Long, Partition> rebuilt = new HashMap<>(byType.size() * 2);
+        byType.forEach((typeId, list) -> {
+            int n = list.size();
+            long[] ids = new long[n];
+            double[] xs = new double[n];
+            double[] ys = new double[n];
+            for (int i = 0; i < n; i++) {
+                Shop shop = list.get(i);
+                ids[i] = shop.getId();
+                xs[i] = shop.getX();
+                ys[i] = shop.getY();
+            }
+            rebuilt.put(typeId, new Partition(ids, xs, ys, n));
+        });
+        // 读取全量商铺期间的变化可能没有被读到，替换前重放
+        if (pendingDuringRebuild != null) {
+            pendingDuringRebuild.forEach(shop -> apply(rebuilt, shop));
+            pendingDuringRebuild = null;
+        }
+        partitions = rebuilt;
+        ready = true;
+    }
+
+    /**
+     * 新增或移动一个商铺
+     */
+    public synchronized void put(Shop shop) {
+        if (shop.getTypeId() == null || shop.getX() == null || shop.getY() == null) {
+            return;
+        }
+        if (pendingDuringRebuild != null) {
+            pendingDuringRebuild.add(shop);
+        }
+        Map<Long, Partition> copy = new HashMap<>(partitions);
+        apply(copy, shop);
+        partitions = copy;
+    }
+
+    private static void apply(Map<Long, Partition> partitions, Shop shop) {
+        partitions.replaceAll((typeId, partition) -> partition.without(shop.getId()));
+        Partition partition = partitions.get(shop.getTypeId());
+        partitions.put(shop.getTypeId(), partition == null
+                ? new Partition(new long[]{shop.getId()}, new double[]{shop.getX()}, new double[]{shop.getY()}, 1)
+                : partition.with(shop.getId(), shop.getX(), shop.getY()));
+    }
+
+    /**
+     * 按距离分页查询附近的商铺
+     * @param typeId 商铺类型
+     * @param x 经度
+     * @param y 纬度
+     * @param radiusMeters 搜索半径，米
+     * @param from 跳过的条数
+     * @param size 每页数量
+     * @return 商铺id到距离（米）的映射，按距离升序
+     */
+    public Map<Long, Double> search(Long typeId, double x, double y, double radiusMeters, int from, int size) {
+        Partition partition = partitions.get(typeId);
+        if (partition == null) {
+            return Collections.emptyMap();
+        }
+        Hits hits = partition.withinRadius(x, y, radiusMeters);
+        hits.sort();
+        // 偏移量来自客户端页码，不能信任调用方已经校验过
+        int start = Math.max(from, 0);
+        int end = (int) Math.min((long) start + Math.max(size, 0), hits.count);
+        Map<Long, Double> result = new LinkedHashMap<>(Math.max(end - start, 0) * 2);
+        for (int i = start; i < end; i++) {
+            result.put(partition.ids[hits.index[i]], hits.distance[i]);
+        }
+        return result;
+    }
+
+    /**
+     * 查询最近的k个商铺，由近到远扩大半径直到凑满k个或达到最大半径
+     * @return 商铺id到距离（米）的映射，按距离升序
+     */
+    public Map<Long, Double> nearest(Long typeId, double x, double y, int k) {
+        Partition partition = partitions.get(typeId);
+        if (partition == null) {
+            return Collections.emptyMap();
+        }
+        Hits hits = null;
+        for (double radius = KNN_START_RADIUS; radius <= KNN_MAX_RADIUS; radius *= 4) {
+            hits = partition.withinRadius(x, y, radius);
+            if (hits.count >= k) {
+                break;
+            }
+        }
+        hits.sort();
+        Map<Long, Double> result = new LinkedHashMap<>(k * 2);
+        for (int i = 0; i < hits.count && i < k; i++) {
+            result.put(partition.ids[hits.index[i]], hits.distance[i]);
+        }
+        return result;
+    }
+
+    static double distance(double x1, double y1, double x2, double y2) {
+        double lat1 = Math.toRadians(y1);
+        double lat2 = Math.toRadians(y2);
+        double u = Math.sin((lat2 - lat1) / 2);
+        double v = Math.sin(Math.toRadians(x2 - x1) / 2);
+        return 2 * EARTH_RADIUS_METERS * Math.asin(Math.sqrt(u * u + Math.cos(lat1) * Math.cos(lat2) * v * v));
+    }
+
+    private static int cell(double degrees) {
+        return (int) Math.floor(degrees / CELL_DEGREES) + CELL_OFFSET;
+    }
+
+    private static long cellKey(int cellX, int cellY) {
+        return ((long) cellX << 32) | cellY;
+    }
+
+    /**
+     * 一种商铺类型的网格快照，各数组按网格key排序
+     */
+    private static final class Partition {
+        private final long[] cells;
+        private final long[] ids;
+        private final double[] xs;
+        private final double[] ys;
+
+        private Partition(long[] ids, double[] xs, double[] ys, int n) {
+            Integer[] order = new Integer[n];
+            long[] keys = new long[n];
+            for (int i = 0; i < n; i++) {
+                order[i] = i;
+                keys[i] = cellKey(cell(xs[i]), cell(ys[i]));
+            }
+            Arrays.sort(order, (a, b) -> Long.compare(keys[a], keys[b]));
+            this.cells = new long[n];
+            this.ids = new long[n];
+            this.xs = new double[n];
+            this.ys = new double[n];
+            for (int i = 0; i < n; i++) {
+                int j = order[i];
+                this.cells[i] = keys[j];
+                this.ids[i] = ids[j];
+                this.xs[i] = xs[j];
+                this.ys[i] = ys[j];
+            }
+        }
+
+        private Partition with(long id, double x, double y) {
+            int n = ids.length;
+            long[] newIds = Arrays.copyOf(ids, n + 1);
+            double[] newXs = Arrays.copyOf(xs, n + 1);
+            double[] newYs = Arrays.copyOf(ys, n + 1);
+            newIds[n] = id;
+            newXs[n] = x;
+            newYs[n] = y;
+            return new Partition(newIds, newXs, newYs, n + 1);
+        }
+
+        private Partition without(long id) {
+            int i = 0;
+            while (i < ids.length && ids[i] != id) {
+                i++;
+            }
+            if (i == ids.length) {
+                return this;
+            }
+            int n = ids.length - 1;
+            long[] newIds = new long[n];
+            double[] newXs = new double[n];
+            double[] newYs = new double[n];
+            System.arraycopy(ids, 0, newIds, 0, i);
+            System.arraycopy(xs, 0, newXs, 0, i);
+            System.arraycopy(ys, 0, newYs, 0, i);
+            System.arraycopy(ids, i + 1, newIds, i, n - i);
+            System.arraycopy(xs, i + 1, newXs, i, n - i);
+            System.arraycopy(ys, i + 1, newYs, i, n - i);
+            return new Partition(newIds, newXs, newYs, n);
+        }
+
+        private Hits withinRadius(double x, double y, double radiusMeters) {
+            double dy = radiusMeters / METERS_PER_DEGREE;
+            double dx = dy / Math.max(Math.cos(Math.toRadians(y)), 0.01);
+            int cx0 = cell(x - dx);
+            int cx1 = cell(x + dx);
+            int cy0 = cell(y - dy);
+            int cy1 = cell(y + dy);
+            Hits hits = new Hits();
+            // 每一列网格在数组中是连续的一段，二分找到起点后扫描到该列的终点
+            for (int cx = cx0; cx <= cx1; cx++) {
+                long end = cellKey(cx, cy1);
+                for (int i = lowerBound(cellKey(cx, cy0)); i < cells.length && cells[i] <= end; i++) {
+                    double d = distance(x, y, xs[i], ys[i]);
+                    if (d <= radiusMeters) {
+                        hits.add(i, d);
+                    }
+                }
+            }
+            return hits;
+        }
+
+        private int lowerBound(long key) {
+            int lo = 0;
+            int hi = cells.length;
+            while (lo < hi) {
+                int mid = (lo + hi) >>> 1;
+                if (cells[mid] < key) {
+                    lo = mid + 1;
+                } else {
+                    hi = mid;
+                }
+            }
+            return lo;
+        }
+    }
+
+    /**
+     * 命中结果，数组下标与距离两个并行数组，按距离排序
+     */
+    private static final class Hits {
+        private int[] index = new int[16];
+        private double[] distance = new double[16];
+        private int count;
+
+        private void add(int i, double d) {
+            if (count == index.length) {
+                index = Arrays.copyOf(index, count * 2);
+                distance = Arrays.copyOf(distance, count * 2);
+            }
+            index[count] = i;
+            distance[count] = d;
+            count++;
+        }
+
+        private void sort() {
+            sort(0, count - 1);
+        }
+
+        private void sort(int lo, int hi) {
+            while (lo < hi) {
+                double pivot = distance[(lo + hi) >>> 1];
+                int i = lo;
+                int j = hi;
+                while (i <= j) {
+                    while (distance[i] < pivot) {
+                        i++;
+                    }
+                    while (distance[j] > pivot) {
+                        j--;
+                    }
+                    if (i <= j) {
+                        swap(i++, j--);
+                    }
+                }
+                // 先递归较短的一侧，控制栈深度
+                if (j - lo < hi - i) {
+                    sort(lo, j);
+                    lo = i;
+                } else {
+                    sort(i, hi);
+                    hi = j;
+                }
+            }
+        }
+
+        private void swap(int a, int b) {
+            int ti = index[a];
+            index[a] = index[b];
+            index[b] = ti;
+            double td = distance[a];
+            distance[a] = distance[b];
+            distance[b] = td;
+        }
+    }
+}
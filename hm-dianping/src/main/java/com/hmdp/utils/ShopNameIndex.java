@@ -0,0 +1,287 @@
+package com.hmdp.utils;
+
+import cn.hutool.core.util.StrUtil;
+import com.hmdp.entity.Shop;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/*
+商铺名称的内存倒排索引：
+    商铺按加入顺序编号为连续的int文档号，每个单字和相邻双字各有一个按文档号升序的int倒排表
+    查询时取关键字所有双字倒排表求交集（单字关键字直接用单字倒排表），再校验名称确实包含关键字
+    商铺新增时追加新文档号，倒排表保持有序；改名时旧文档号标记删除并追加新文档
+    全量重建在锁外完成后整体替换，重建期间的增量在替换后重放
+*/
+@Slf4j
+@Component
+public class ShopNameIndex {
+
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private volatile Index index = new Index();
+    private volatile boolean ready;
+    private List<Shop> pendingDuringRebuild;
+
+    // 统计数据，每个周期输出后清零
+    private final LongAdder queries = new LongAdder();
+    private final LongAdder latencyTotal = new LongAdder();
+    private final LongAccumulator latencyMax = new LongAccumulator(Long::max, 0);
+
+    public boolean isReady() {
+        return ready;
+    }
+
+    /**
+     * 开始记录增量，需要在读取全量商铺之前调用，读取期间的变化在rebuild时重放
+     */
+    public synchronized void beginRebuild() {
+        pendingDuringRebuild = new ArrayList<>();
+    }
+
+    /**
+     * 读取全量商铺失败时放弃本次重建，停止记录增量
+     */
+    public synchronized void cancelRebuild() {
+        pendingDuringRebuild = null;
+    }
+
+    /**
+     * 用全部商铺重建索引
+     * @param shops 商铺，需要id、name
+     */
+    public void rebuild(Collection<Shop> shops) {
+        synchronized (this) {
+            if (pendingDuringRebuild == null) {
+                pendingDuringRebuild = new ArrayList<>();
+            }
+        }
+        Index rebuilt = new Index();
+        shops.forEach(rebuilt::put);
+        synchronized (this) {
+            lock.writeLock().lock();
+            try {
+                pendingDuringRebuild.forEach(rebuilt::put);
+                pendingDuringRebuild = null;
+                index = rebuilt;
+                ready = true;
+            } finally {
+                lock.writeLock().unlock();
+            }
+        }
+        log.info("商铺名称索引重建完成：商铺{}，词项{}，约{}KB",
+                rebuilt.shopIds.size(), rebuilt.postings.size(), rebuilt.memoryBytes() / 1024);
+    }
+
+    /**
+     * 新增商铺或商铺改名
+     */
+    public synchronized void put(Shop shop) {
+        if (shop.getId() == null || shop.getName() == null) {
+            return;
+        }
+        if (pendingDuringRebuild != null) {
+            pendingDuringRebuild.add(shop);
+        }
+        lock.writeLock().lock();
+        try {
+            index.put(shop);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * 按名称关键字查询商铺
+     * @param keyword 关键字
+     * @param from 跳过的条数
+     * @param size 每页数量
+     * @return 商铺id，完全匹配、前缀匹配、出现位置靠前、名称较短的排在前面
+     */
+    public List<Long> search(String keyword, int from, int size) {
+        long begin = System.nanoTime();
+        lock.readLock().lock();
+        try {
+            return index.search(normalize(keyword), from, size);
+        } finally {
+            lock.readLock().unlock();
+            long latency = System.nanoTime() - begin;
+            queries.increment();
+            latencyTotal.add(latency);
+            latencyMax.accumulate(latency);
+        }
+    }
+
+    @Scheduled(fixedRate = 60000)
+    public void report() {
+        long count = queries.sumThenReset();
+        long latency = latencyTotal.sumThenReset();
+        long max = latencyMax.getThenReset();
+        if (count == 0) {
+            return;
+        }
+        Index current = index;
+        log.info("商铺名称索引：查询{}次，平均耗时{}us，最大耗时{}us，商铺{}，约{}KB",
+                count, latency / count / 1000, max / 1000, current.shopIds.size(), current.memoryBytes() / 1024);
+    }
+
+    private static String normalize(String name) {
+        return StrUtil.trim(name).toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * 单字的key就是字符本身，双字的key高16位为第一个字符，两者不会冲突
+     */
+    private static int gramKey(char first, char second) {
+        return (first << 16) | second;
+    }
+
+    private static final class Index {
+        private final Map<Integer, Postings> postings = new HashMap<>();
+        private final List<Long> shopIds = new ArrayList<>();
+        private final List<String> names = new ArrayList<>();
+        private final Map<Long, Integer> docOfShop = new HashMap<>();
+        private final BitSet deleted = new BitSet();
+
+        private void put(Shop shop) {
+            String name = normalize(shop.getName());
+            Integer old = docOfShop.get(shop.getId());
+            if (old != null) {
+                if (names.get(old).equals(name)) {
+                    return;
+                }
+                deleted.set(old);
+            }
+            int doc = shopIds.size();
+            shopIds.add(shop.getId());
+            names.add(name);
+            docOfShop.put(shop.getId(), doc);
+            for (int i = 0; i < name.length(); i++) {
+                postings(name.charAt(i)).add(doc);
+                if (i + 1 < name.length()) {
+                    postings(gramKey(name.charAt(i), name.charAt(i + 1))).add(doc);
+                }
+            }
+        }
+
+        private Postings postings(int key) {
+            return postings.computeIfAbsent(key, k -> new Postings());
+        }
+
+        private List<Long> search(String keyword, int from, int size) {
+            if (keyword.isEmpty()) {
+                return new ArrayList<>();
+            }
+            int[] candidates;
+            int count;
+            if (keyword.length() == 1) {
+                Postings p = postings.get((int) keyword.charAt(0));
+                if (p == null) {
+                    return new ArrayList<>();
+                }
+                candidates = p.docs;
+                count = p.size;
+            } else {
+                // 从最短的倒排表开始求交集
+                Postings[] lists = new Postings[keyword.length() - 1];
+                for (int i = 0; i + 1 < keyword.length(); i++) {
+                    Postings p = postings.get(gramKey(keyword.charAt(i), keyword.charAt(i + 1)));
+                    if (p == null) {
+                        return new ArrayList<>();
+                    }
+                    lists[i] = p;
+                }
+                Arrays.sort(lists, (a, b) -> Integer.compare(a.size, b.size));
+                candidates = Arrays.copyOf(lists[0].docs, lists[0].size);
+                count = lists[0].size;
+                for (int i = 1; i < lists.length && count > 0; i++) {
+                    count = intersect(candidates, count, lists[i]);
+                }
+            }
+            // 校验命中并计算排序键：匹配类型、出现位置、名称长度、文档号
+            long[] ranked = new long[count];
+            int hits = 0;
+            for (int i = 0; i < count; i++) {
+                int doc = candidates[i];
+                if (deleted.get(doc)) {
+                    continue;
+                }
+                String name = names.get(doc);
+                int position = name.indexOf(keyword);
+                if (position < 0) {
+                    continue;
+                }
+                long matchType = name.length() == keyword.length() ? 0 : position == 0 ? 1 : 2;
+                ranked[hits++] = matchType << 60 | (long) Math.min(position, 0x3FF) << 50
+                        | (long) Math.min(name.length(), 0x3FF) << 40 | doc;
+            }
+            Arrays.sort(ranked, 0, hits);
+            int start = Math.max(from, 0);
+            int end = (int) Math.min((long) start + Math.max(size, 0), hits);
+            List<Long> result = new ArrayList<>(Math.max(end - start, 0));
+            for (int i = start; i < end; i++) {
+                result.add(shopIds.get((int) (ranked[i] & 0xFFFFFFFFFFL)));
+            }
+            return result;
+        }
+
+        /**
+         * 有序数组求交集，结果写回candidates的前部
+         */
+        private static int intersect(int[] candidates, int count, Postings other) {
+            int n = 0;
+            int j = 0;
+            for (int i = 0; i < count && j < other.size; i++) {
+                int doc = candidates[i];
+                while (j < other.size && other.docs[j] < doc) {
+                    j++;
+                }
+                if (j < other.size && other.docs[j] == doc) {
+                    candidates[n++] = doc;
+                }
+            }
+            return n;
+        }
+
+        private long memoryBytes() {
+            long bytes = 0;
+            for (Postings p : postings.values()) {
+                bytes += 16 + 4L * p.docs.length;
+            }
+            for (String name : names) {
+                bytes += 40 + 2L * name.length();
+            }
+            return bytes + 48L * shopIds.size();
+        }
+    }
+
+    /**
+     * 按文档号升序的倒排表，文档号只增不减，追加即有序
+     */
+    private static final class Postings {
+        private int[] docs = new int[4];
+        private int size;
+
+        private void add(int doc) {
+            if (size > 0 && docs[size - 1] == doc) {
+                return;
+            }
+            if (size == docs.length) {
+                docs = Arrays.copyOf(docs, size * 2);
+            }
+            docs[size++] = doc;
+        }
+    }
+}
@@ -0,0 +1,250 @@
+package com.hmdp.utils;
+
+import cn.hutool.core.util.StrUtil;
+import com.hmdp.dto.ShopSuggestDTO;
+import com.hmdp.entity.Shop;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/*
+商铺名称前缀联想：
+    按名称建字典树，子节点用有序char数组加二分查找，每个节点预先算好该前缀下销量、评分最高的TOP_K个商铺
+    查询只需沿前缀走到对应节点，直接返回节点上的结果
+    商铺变化时只重算旧名称和新名称两条路径上节点的TOP_K
+*/
+@Slf4j
+@Component
+public class ShopNameSuggester {
+    public static final int TOP_K = 10;
+
+    private static final Comparator<Entry> RANKING = Comparator.comparingInt((Entry e) -> e.sold).reversed()
+            .thenComparing(Comparator.comparingInt((Entry e) -> e.score).reversed())
+            .thenComparingLong(e -> e.id);
+
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private volatile Trie trie = new Trie();
+    private volatile boolean ready;
+    private List<Shop> pendingDuringRebuild;
+
+    public boolean isReady() {
+        return ready;
+    }
+
+    /**
+     * 开始记录增量，需要在读取全量商铺之前调用，读取期间的变化在rebuild时重放
+     */
+    public synchronized void beginRebuild() {
+        pendingDuringRebuild = new ArrayList<>();
+    }
+
+    /**
+     * 读取全量商铺失败时放弃本次重建，停止记录增量
+     */
+    public synchronized void cancelRebuild() {
+        pendingDuringRebuild = null;
+    }
+
+    /**
+     * 用全部商铺重建
+     * @param shops 商铺，需要id、name、sold、score
+     */
+    public void rebuild(Collection<Shop> shops) {
+        synchronized (this) {
+            if (pendingDuringRebuild == null) {
+                pendingDuringRebuild = new ArrayList<>();
+            }
+        }
+        Trie rebuilt = new Trie();
+        shops.forEach(rebuilt::insertWithoutRanking);
+        rebuilt.root.rankAll();
+        synchronized (this) {
+            lock.writeLock().lock();
+            try {
+                pendingDuringRebuild.forEach(rebuilt::put);
+                pendingDuringRebuild = null;
+                trie = rebuilt;
+                ready = true;
+            } finally {
+                lock.writeLock().unlock();
+            }
+        }
+        log.info("商铺名称联想重建完成：商铺{}", rebuilt.entries.size());
+    }
+
+    /**
+     * 新增商铺，或商铺名称、销量、评分变化
+     */
+    public synchronized void put(Shop shop) {
+        if (shop.getId() == null || shop.getName() == null) {
+            return;
+        }
+        if (pendingDuringRebuild != null) {
+            pendingDuringRebuild.add(shop);
+        }
+        lock.writeLock().lock();
+        try {
+            trie.put(shop);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * 查询以prefix开头的商铺
+     * @param prefix 前缀
+     * @param limit 数量，不超过TOP_K
+     * @return 按销量、评分从高到低
+     */
+    public List<ShopSuggestDTO> suggest(String prefix, int limit) {
+        String key = normalize(prefix);
+        lock.readLock().lock();
+        try {
+            Node node = trie.root;
+            for (int i = 0; i < key.length() && node != null; i++) {
+                node = node.child(key.charAt(i));
+            }
+            if (node == null) {
+                return new ArrayList<>();
+            }
+            int n = Math.max(0, Math.min(limit, node.top.length));
+            List<ShopSuggestDTO> result = new ArrayList<>(n);
+            for (int i = 0; i < n; i++) {
+                result.add(new ShopSuggestDTO(node.top[i].id, node.top[i].name));
+            }
+            return result;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private static String normalize(String name) {
+        return StrUtil.trimToEmpty(name).toLowerCase(Locale.ROOT);
+    }
+
+    private static final class Entry {
+        private final long id;
+        private final String name;
+        private final String key;
+        private final int sold;
+        private final int score;
+
+        private Entry(Shop shop) {
+            this.id = shop.getId();
+            this.name = shop.getName();
+            this.key = normalize(shop.getName());
+            this.sold = shop.getSold() == null ? 0 : shop.getSold();
+            this.score = shop.getScore() == null ? 0 : shop.getScore();
+        }
+    }
+
+    private static final class Trie {
+        private final Node root = new Node();
+        private final Map<Long, Entry> entries = new HashMap<>();
+
+        private void insertWithoutRanking(Shop shop) {
+            Entry entry = new Entry(shop);
+            Entry old = entries.put(entry.id, entry);
+            if (old != null) {
+                path(old.key, false)[old.key.length()].terminals.remove(old);
+            }
+            path(entry.key, true)[entry.key.length()].terminals.add(entry);
+        }
+
+        private void put(Shop shop) {
+            Entry entry = new Entry(shop);
+            Entry old = entries.put(entry.id, entry);
+            if (old != null) {
+                Node[] oldPath = path(old.key, false);
+                oldPath[old.key.length()].terminals.remove(old);
+                rerank(oldPath);
+            }
+            Node[] newPath = path(entry.key, true);
+            newPath[entry.key.length()].terminals.add(entry);
+            rerank(newPath);
+        }
+
+        /**
+         * 从根到key对应节点的路径
+         */
+        private Node[] path(String key, boolean create) {
+            Node[] path = new Node[key.length() + 1];
+            path[0] = root;
+            for (int i = 0; i < key.length(); i++) {
+                Node child = path[i].child(key.charAt(i));
+                if (child == null && create) {
+                    child = path[i].addChild(key.charAt(i));
+                }
+                path[i + 1] = child;
+            }
+            return path;
+        }
+
+        private static void rerank(Node[] path) {
+            for (int i = path.length - 1; i >= 0; i--) {
+                path[i].rank();
+            }
+        }
+    }
+
+    private static final class Node {
+        private static final Entry[] NONE = new Entry[0];
+
+        private char[] keys = new char[0];
+        private Node[] children = new Node[0];
+        private final List<Entry> terminals = new ArrayList<>(1);
+        private Entry[] top = NONE;
+
+        private Node child(char c) {
+            int i = Arrays.binarySearch(keys, c);
+            return i < 0 ? null : children[i];
+        }
+
+        private Node addChild(char c) {
+            int i = -Arrays.binarySearch(keys, c) - 1;
+            char[] newKeys = new char[keys.length + 1];
+            Node[] newChildren = new Node[children.length + 1];
+            System.arraycopy(keys, 0, newKeys, 0, i);
+            System.arraycopy(children, 0, newChildren, 0, i);
+            newKeys[i] = c;
+            newChildren[i] = new Node();
+            System.arraycopy(keys, i, newKeys, i + 1, keys.length - i);
+            System.arraycopy(children, i, newChildren, i + 1, children.length - i);
+            keys = newKeys;
+            children = newChildren;
+            return newChildren[i];
+        }
+
+        /**
+         * 自底向上计算整棵子树的TOP_K，用于全量重建
+         */
+        private void rankAll() {
+            for (Node child : children) {
+                child.rankAll();
+            }
+            rank();
+        }
+
+        /**
+         * 由子节点的TOP_K和本节点结束的商铺合并出本节点的TOP_K
+         */
+        private void rank() {
+            List<Entry> candidates = new ArrayList<>(terminals);
+            for (Node child : children) {
+                candidates.addAll(Arrays.asList(child.top));
+            }
+            candidates.sort(RANKING);
+            top = candidates.subList(0, Math.min(TOP_K, candidates.size())).toArray(NONE);
+        }
+    }
+}
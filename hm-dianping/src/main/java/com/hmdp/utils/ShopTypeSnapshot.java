@@ -0,0 +1,31 @@
+package com.hmdp.utils;
+
+import com.hmdp.entity.ShopType;
+import lombok.Getter;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * 商铺类型列表的不可变快照，连同序列化好的响应体和ETag一起整体替换
+ */
+@Getter
+public class ShopTypeSnapshot {
+    /**
+     * redis中的版本号，没有版本号时为0
+     */
+    private final long version;
+    private final List<ShopType> types;
+    /**
+     * Result.ok(types)的json
+     */
+    private final byte[] body;
+    private final String etag;
+
+    public ShopTypeSnapshot(long version, List<ShopType> types, byte[] body, String etag) {
+        this.version = version;
+        this.types = Collections.unmodifiableList(types);
+        this.body = body;
+        this.etag = etag;
+    }
+}
@@ -0,0 +1,133 @@
+package com.hmdp.utils;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/*
+短信验证码异步发送队列：
+    请求线程只负责入队，队列有界，满了直接拒绝，避免短信网关变慢时拖垮tomcat线程
+    单独的发送线程批量出队交给SmsSender，整批失败后退避重试，超过次数后丢弃
+    定时输出队列长度与发送延迟
+*/
+@Slf4j
+@Component
+public class SmsCodeDispatcher {
+    private static final int QUEUE_CAPACITY = 10000;
+    private static final int BATCH_SIZE = 50;
+    private static final int MAX_ATTEMPTS = 3;
+    private static final long RETRY_BACKOFF_MILLIS = 200;
+
+    private final BlockingQueue<SmsMessage> queue = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+    private final SmsSender smsSender;
+    private volatile boolean running = true;
+    private Thread worker;
+
+    // 统计数据，每个周期输出后清零
+    private final LongAdder sent = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+    private final LongAdder latencyTotal = new LongAdder();
+    private final LongAccumulator latencyMax = new LongAccumulator(Long::max, 0);
+
+    public SmsCodeDispatcher(SmsSender smsSender) {
+        this.smsSender = smsSender;
+    }
+
+    @PostConstruct
+    public void start() {
+        worker = new Thread(this::dispatchLoop, "sms-dispatcher");
+        worker.setDaemon(true);
+        worker.start();
+    }
+
+    @PreDestroy
+    public void stop() {
+        running = false;
+        worker.interrupt();
+    }
+
+    /**
+     * 提交发送任务
+     * @return 队列已满返回false
+     */
+    public boolean submit(String phone, String code) {
+        boolean accepted = queue.offer(new SmsMessage(phone, code));
+        if (!accepted) {
+            rejected.increment();
+        }
+        return accepted;
+    }
+
+    public int queueDepth() {
+        return queue.size();
+    }
+
+    private void dispatchLoop() {
+        List<SmsMessage> batch = new ArrayList<>(BATCH_SIZE);
+        while (running) {
+            try {
+                // 阻塞等待第一条，再把队列中已有的一次性取出凑成一批
+                batch.add(queue.take());
+                queue.drainTo(batch, BATCH_SIZE - 1);
+                sendWithRetry(batch);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } finally {
+                batch.clear();
+            }
+        }
+    }
+
+    private void sendWithRetry(List<SmsMessage> batch) throws InterruptedException {
+        for (int attempt = 1; ; attempt++) {
+            try {
+                smsSender.send(batch);
+                long now = System.currentTimeMillis();
+                for (SmsMessage message : batch) {
+                    long latency = now - message.getEnqueueTime();
+                    latencyTotal.add(latency);
+                    latencyMax.accumulate(latency);
+                }
+                sent.add(batch.size());
+                return;
+            } catch (InterruptedException e) {
+                throw e;
+            } catch (Exception e) {
+                if (attempt >= MAX_ATTEMPTS) {
+                    failed.add(batch.size());
+                    log.error("短信发送失败，丢弃{}条", batch.size(), e);
+                    return;
+                }
+                log.warn("短信发送失败，第{}次重试", attempt, e);
+                TimeUnit.MILLISECONDS.sleep(RETRY_BACKOFF_MILLIS * attempt);
+            }
+        }
+    }
+
+    @Scheduled(fixedRate = 60000)
+    public void report() {
+        long sentCount = sent.sumThenReset();
+        long failedCount = failed.sumThenReset();
+        long rejectedCount = rejected.sumThenReset();
+        long latency = latencyTotal.sumThenReset();
+        long max = latencyMax.getThenReset();
+        if (sentCount + failedCount + rejectedCount == 0 && queue.isEmpty()) {
+            return;
+        }
+        log.info("短信队列：积压{}，发送{}，失败{}，拒绝{}，平均延迟{}ms，最大延迟{}ms",
+                queue.size(), sentCount, failedCount, rejectedCount,
+                sentCount == 0 ? 0 : latency / sentCount, max);
+    }
+}
@@ -0,0 +1,22 @@
+package com.hmdp.utils;
+
+import lombok.Data;
+
+/**
+ * 待发送的短信验证码
+ */
+@Data
+public class SmsMessage {
+    private String phone;
+    private String code;
+    /**
+     * 入队时间，用于统计发送延迟
+     */
+    private long enqueueTime;
+
+    public SmsMessage(String phone, String code) {
+        this.phone = phone;
+        this.code = code;
+        this.enqueueTime = System.currentTimeMillis();
+    }
+}
@@ -0,0 +1,15 @@
+package com.hmdp.utils;
+
+import java.util.List;
+
+/**
+ * 短信网关，接入真实网关时提供该接口的实现并替换{@link LogSmsSender}
+ */
+public interface SmsSender {
+
+    /**
+     * 批量发送短信，抛出异常表示整批发送失败，由调用方重试
+     * @param messages 短信列表
+     */
+    void send(List<SmsMessage> messages) throws Exception;
+}
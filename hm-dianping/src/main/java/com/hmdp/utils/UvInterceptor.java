@@ -0,0 +1,30 @@
+package com.hmdp.utils;
+
+import com.hmdp.dto.UserDTO;
+import org.springframework.web.servlet.HandlerInterceptor;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+
+public class UvInterceptor implements HandlerInterceptor {
+    private final UvStats uvStats;
+
+    public UvInterceptor(UvStats uvStats) {
+        this.uvStats = uvStats;
+    }
+
+    @Override
+    public boolean preHandle(HttpServletRequest request, HttpServletResponse response, Object handler) throws Exception {
+        // 在RefreshInterceptor之后执行，登录用户已经存入UserHolder
+        UserDTO user = UserHolder.getUser();
+        // 匿名访客按客户端ip去重，经nginx转发时remoteAddr都是代理地址
+        UvStats.begin(user != null ? "u:" + user.getId() : "ip:" + ClientIps.resolve(request));
+        return true;
+    }
+
+    @Override
+    public void afterCompletion(HttpServletRequest request, HttpServletResponse response, Object handler, Exception ex) throws Exception {
+        uvStats.flush();
+    }
+}
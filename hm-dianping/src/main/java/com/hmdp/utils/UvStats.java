@@ -0,0 +1,156 @@
+package com.hmdp.utils;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.dao.DataAccessException;
+import org.springframework.data.redis.core.RedisOperations;
+import org.springframework.data.redis.core.SessionCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.stereotype.Component;
+
+import java.time.DayOfWeek;
+import java.time.LocalDate;
+import java.time.YearMonth;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import static com.hmdp.utils.RedisConstants.UV_DAY_TTL;
+import static com.hmdp.utils.RedisConstants.UV_KEY;
+import static com.hmdp.utils.RedisConstants.UV_OPEN_ROLLUP_TTL;
+import static com.hmdp.utils.RedisConstants.UV_ROLLUP_TTL;
+
+/*
+商铺、博文的独立访客统计：
+    每个对象每天一个HyperLogLog，key为 uv:<类型>:<id>:<yyyyMMdd>，无论访问量多大，每个key最多约12KB
+    读接口只把访问的对象记到当前请求的缓冲中，请求结束时由UvInterceptor一次管道写入
+    访客为登录用户的id，未登录时为客户端ip
+    周、月统计由PFMERGE把每日的key合并到汇总key，已结束的周期合并一次后长期保留，未结束的周期短时间缓存
+*/
+@Slf4j
+@Component
+public class UvStats {
+
+    public enum Target {
+        SHOP("shop"),
+        BLOG("blog");
+
+        private final String name;
+
+        Target(String name) {
+            this.name = name;
+        }
+
+        public static Target of(String name) {
+            for (Target target : values()) {
+                if (target.name.equalsIgnoreCase(name)) {
+                    return target;
+                }
+            }
+            return null;
+        }
+    }
+
+    private static final DateTimeFormatter DAY_FORMAT = DateTimeFormatter.BASIC_ISO_DATE;
+    private static final DateTimeFormatter MONTH_FORMAT = DateTimeFormatter.ofPattern("yyyyMM");
+
+    private static final ThreadLocal<String> VISITOR = new ThreadLocal<>();
+    private static final ThreadLocal<Set<String>> VISITED = new ThreadLocal<>();
+
+    private final StringRedisTemplate stringRedisTemplate;
+
+    public UvStats(StringRedisTemplate stringRedisTemplate) {
+        this.stringRedisTemplate = stringRedisTemplate;
+    }
+
+    /**
+     * 请求开始时记录访客
+     */
+    static void begin(String visitor) {
+        VISITOR.set(visitor);
+        VISITED.set(new LinkedHashSet<>());
+    }
+
+    /**
+     * 记录当前请求访问了一个对象，不在请求中时忽略
+     */
+    public void record(Target target, Long id) {
+        Set<String> visited = VISITED.get();
+        if (visited != null && id != null) {
+            visited.add(dayKey(target, id, LocalDate.now()));
+        }
+    }
+
+    /**
+     * 请求结束时把缓冲的访问一次写入redis，统计失败不影响请求
+     */
+    void flush() {
+        String visitor = VISITOR.get();
+        Set<String> visited = VISITED.get();
+        VISITOR.remove();
+        VISITED.remove();
+        if (visitor == null || visited == null || visited.isEmpty()) {
+            return;
+        }
+        try {
+            stringRedisTemplate.executePipelined(new SessionCallback<Object>() {
+                @Override
+                @SuppressWarnings("unchecked")
+                public Object execute(RedisOperations operations) throws DataAccessException {
+                    for (String key : visited) {
+                        operations.opsForHyperLogLog().add(key, visitor);
+                        operations.expire(key, UV_DAY_TTL, TimeUnit.DAYS);
+                    }
+                    return null;
+                }
+            });
+        } catch (Exception e) {
+            log.warn("记录访客失败，{}条", visited.size(), e);
+        }
+    }
+
+    public long countDay(Target target, Long id, LocalDate day) {
+        Long count = stringRedisTemplate.opsForHyperLogLog().size(dayKey(target, id, day));
+        return count == null ? 0 : count;
+    }
+
+    /**
+     * 所在自然周（周一到周日）的独立访客数
+     */
+    public long countWeek(Target target, Long id, LocalDate day) {
+        LocalDate monday = day.with(DayOfWeek.MONDAY);
+        String key = UV_KEY + target.name + ":" + id + ":w:" + monday.format(DAY_FORMAT);
+        return rollup(key, target, id, monday, monday.plusDays(6));
+    }
+
+    public long countMonth(Target target, Long id, YearMonth month) {
+        String key = UV_KEY + target.name + ":" + id + ":m:" + month.format(MONTH_FORMAT);
+        return rollup(key, target, id, month.atDay(1), month.atEndOfMonth());
+    }
+
+    private long rollup(String key, Target target, Long id, LocalDate from, LocalDate to) {
+        LocalDate today = LocalDate.now();
+        boolean closed = to.isBefore(today);
+        if (!Boolean.TRUE.equals(stringRedisTemplate.hasKey(key))) {
+            List<String> days = new ArrayList<>();
+            for (LocalDate day = from; !day.isAfter(to) && !day.isAfter(today); day = day.plusDays(1)) {
+                days.add(dayKey(target, id, day));
+            }
+            // 合并到新key，不存在的日key视为空集
+            stringRedisTemplate.opsForHyperLogLog().union(key, days.toArray(new String[0]));
+            if (closed) {
+                stringRedisTemplate.expire(key, UV_ROLLUP_TTL, TimeUnit.DAYS);
+            } else {
+                stringRedisTemplate.expire(key, UV_OPEN_ROLLUP_TTL, TimeUnit.MINUTES);
+            }
+        }
+        Long count = stringRedisTemplate.opsForHyperLogLog().size(key);
+        return count == null ? 0 : count;
+    }
+
+    private static String dayKey(Target target, Long id, LocalDate day) {
+        return UV_KEY + target.name + ":" + id + ":" + day.format(DAY_FORMAT);
+    }
+}
@@ -0,0 +1,12 @@
+-- 博文点赞/取消点赞脚本，同一用户重复调用在两种状态间切换
+-- KEYS[1] 博文点赞用户zset  KEYS[2] 待刷库的点赞增量hash
+-- ARGV[1] 用户id  ARGV[2] 点赞时间戳  ARGV[3] 博文id
+-- 返回值：1 点赞；0 取消点赞
+if redis.call('zscore', KEYS[1], ARGV[1]) then
+    redis.call('zrem', KEYS[1], ARGV[1])
+    redis.call('hincrby', KEYS[2], ARGV[3], -1)
+    return 0
+end
+redis.call('zadd', KEYS[1], ARGV[2], ARGV[1])
+redis.call('hincrby', KEYS[2], ARGV[3], 1)
+return 1
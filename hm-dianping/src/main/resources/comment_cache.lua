@@ -0,0 +1,32 @@
+-- 评论首页缓存增量更新脚本，缓存不存在时不处理，等下次读取时重建
+-- KEYS[1] 博文评论首页缓存list，每个元素是一条一级评论及其回复的json
+-- ARGV[1] 新评论的一级评论id，一级评论为0  ARGV[2] 新评论json  ARGV[3] 首页一级评论数量
+-- ARGV[4] 每条一级评论缓存的回复数量上限
+-- 返回值：1 已更新；0 缓存不存在、回复的评论不在首页或回复已达上限
+if redis.call('exists', KEYS[1]) == 0 then
+    return 0
+end
+-- 新的一级评论插入到首页头部，挤出最旧的一条
+if ARGV[1] == '0' then
+    redis.call('lpush', KEYS[1], ARGV[2])
+    redis.call('ltrim', KEYS[1], 0, tonumber(ARGV[3]) - 1)
+    return 1
+end
+-- 回复追加到首页中对应一级评论的回复列表末尾
+local parentId = tonumber(ARGV[1])
+local items = redis.call('lrange', KEYS[1], 0, -1)
+for i, item in ipairs(items) do
+    local comment = cjson.decode(item)
+    if comment.id == parentId then
+        if type(comment.replies) ~= 'table' then
+            comment.replies = {}
+        end
+        if #comment.replies >= tonumber(ARGV[4]) then
+            return 0
+        end
+        table.insert(comment.replies, cjson.decode(ARGV[2]))
+        redis.call('lset', KEYS[1], i - 1, cjson.encode(comment))
+        return 1
+    end
+end
+return 0
@@ -0,0 +1,9 @@
+-- 评论首页缓存重建脚本，删除旧list、写入新list、设置过期时间在一次调用中完成
+-- KEYS[1] 博文评论首页缓存list
+-- ARGV[1] 过期时间，单位秒  ARGV[2..n] 按顺序排列的一级评论json
+redis.call('del', KEYS[1])
+for i = 2, #ARGV do
+    redis.call('rpush', KEYS[1], ARGV[i])
+end
+redis.call('expire', KEYS[1], tonumber(ARGV[1]))
+return #ARGV - 1
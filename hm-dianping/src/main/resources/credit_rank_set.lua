@@ -0,0 +1,12 @@
+-- 积分榜更新脚本：积分为0时移出榜单；全量重建进行中时同时记录到待重放hash，重建完成后覆盖重建期间读到的旧值
+-- KEYS[1] 积分榜zset  KEYS[2] 重建锁  KEYS[3] 待重放hash
+-- ARGV[1] 用户id  ARGV[2] 最新积分
+if tonumber(ARGV[2]) > 0 then
+    redis.call('zadd', KEYS[1], ARGV[2], ARGV[1])
+else
+    redis.call('zrem', KEYS[1], ARGV[1])
+end
+if redis.call('exists', KEYS[2]) == 1 then
+    redis.call('hset', KEYS[3], ARGV[1], ARGV[2])
+end
+return 1
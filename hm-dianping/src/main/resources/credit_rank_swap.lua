@@ -0,0 +1,17 @@
+-- 积分榜重建完成脚本：用重建好的zset替换榜单，再重放重建期间的积分变化，整体原子执行
+-- KEYS[1] 积分榜zset  KEYS[2] 重建中的zset  KEYS[3] 待重放hash
+if redis.call('exists', KEYS[2]) == 1 then
+    redis.call('rename', KEYS[2], KEYS[1])
+else
+    redis.call('del', KEYS[1])
+end
+local pending = redis.call('hgetall', KEYS[3])
+for i = 1, #pending, 2 do
+    if tonumber(pending[i + 1]) > 0 then
+        redis.call('zadd', KEYS[1], pending[i + 1], pending[i])
+    else
+        redis.call('zrem', KEYS[1], pending[i])
+    end
+end
+redis.call('del', KEYS[3])
+return #pending / 2
@@ -0,0 +1,11 @@
+-- 增量hash交换脚本：上一批还在刷库中时不交换，保证同一时刻只有一批待刷库数据
+-- KEYS[1] 正在累加的增量hash  KEYS[2] 刷库中的增量hash
+-- 返回值：1 刷库中的hash存在，需要刷库；0 无需刷库
+if redis.call('exists', KEYS[2]) == 1 then
+    return 1
+end
+if redis.call('exists', KEYS[1]) == 0 then
+    return 0
+end
+redis.call('rename', KEYS[1], KEYS[2])
+return 1
@@ -0,0 +1,11 @@
+-- 热榜增量脚本：按事件发生时间对分值做指数衰减后累加
+-- 分值统一折算到基准时间，基准时间之后的事件权重为 e^(lambda * (t - epoch))
+-- KEYS[1] 热榜zset  KEYS[2] 基准时间key
+-- ARGV[1] 博文id  ARGV[2] 事件分值  ARGV[3] 事件时间(秒)  ARGV[4] 衰减系数lambda
+local epoch = redis.call('get', KEYS[2])
+if not epoch then
+    epoch = ARGV[3]
+    redis.call('set', KEYS[2], epoch)
+end
+local weight = tonumber(ARGV[2]) * math.exp(tonumber(ARGV[4]) * (tonumber(ARGV[3]) - tonumber(epoch)))
+return redis.call('zincrby', KEYS[1], weight, ARGV[1])
@@ -0,0 +1,13 @@
+-- 热榜重新衰减脚本：把所有分值折算到当前时间并推进基准时间，防止分值无限增长，同时截断榜单长度
+-- 重复执行是幂等的，多实例同时执行不会重复衰减
+-- KEYS[1] 热榜zset  KEYS[2] 基准时间key
+-- ARGV[1] 当前时间(秒)  ARGV[2] 衰减系数lambda  ARGV[3] 榜单最大长度
+local epoch = tonumber(redis.call('get', KEYS[2]) or ARGV[1])
+local factor = math.exp(-tonumber(ARGV[2]) * (tonumber(ARGV[1]) - epoch))
+local members = redis.call('zrange', KEYS[1], 0, -1, 'WITHSCORES')
+for i = 1, #members, 2 do
+    redis.call('zadd', KEYS[1], tonumber(members[i + 1]) * factor, members[i])
+end
+redis.call('set', KEYS[2], ARGV[1])
+redis.call('zremrangebyrank', KEYS[1], 0, -(tonumber(ARGV[3]) + 1))
+return #members / 2
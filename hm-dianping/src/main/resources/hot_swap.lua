@@ -0,0 +1,10 @@
+-- 热榜重建完成脚本：用重建好的zset替换热榜，同时更新分值基准时间，整体原子执行
+-- KEYS[1] 热榜zset  KEYS[2] 重建中的zset  KEYS[3] 基准时间
+-- ARGV[1] 重建时使用的基准时间，单位秒
+if redis.call('exists', KEYS[2]) == 1 then
+    redis.call('rename', KEYS[2], KEYS[1])
+else
+    redis.call('del', KEYS[1])
+end
+redis.call('set', KEYS[3], ARGV[1])
+return redis.call('zcard', KEYS[1])
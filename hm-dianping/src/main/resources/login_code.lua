@@ -0,0 +1,18 @@
+-- 登录验证码校验脚本：校验并删除验证码，同时取出手机号对应的用户id缓存
+-- KEYS[1] 验证码key  KEYS[2] 手机号->用户id缓存key
+-- ARGV[1] 用户提交的验证码
+-- 返回值：-1 验证码错误；0 手机号缓存未命中；-2 命中空值（新用户）；>0 用户id
+local code = redis.call('get', KEYS[1])
+if (not code) or code ~= ARGV[1] then
+    return -1
+end
+-- 验证码只能使用一次
+redis.call('del', KEYS[1])
+local userId = redis.call('get', KEYS[2])
+if not userId then
+    return 0
+end
+if userId == '' then
+    return -2
+end
+return tonumber(userId)
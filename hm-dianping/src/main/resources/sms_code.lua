@@ -0,0 +1,24 @@
+-- 短信验证码限流脚本：冷却时间、手机号日配额、IP日配额校验通过后写入验证码
+-- KEYS[1] 手机号冷却key  KEYS[2] 手机号日计数key  KEYS[3] IP日计数key  KEYS[4] 验证码key
+-- ARGV[1] 验证码  ARGV[2] 验证码有效期(秒)  ARGV[3] 冷却时间(秒)
+-- ARGV[4] 手机号日配额  ARGV[5] IP日配额  ARGV[6] 日计数有效期(秒)
+-- 返回值：0 成功；1 冷却中；2 手机号超出日配额；3 IP超出日配额
+if redis.call('exists', KEYS[1]) == 1 then
+    return 1
+end
+if tonumber(redis.call('get', KEYS[2]) or '0') >= tonumber(ARGV[4]) then
+    return 2
+end
+if tonumber(redis.call('get', KEYS[3]) or '0') >= tonumber(ARGV[5]) then
+    return 3
+end
+-- 计数，首次计数时设置有效期
+if redis.call('incr', KEYS[2]) == 1 then
+    redis.call('expire', KEYS[2], ARGV[6])
+end
+if redis.call('incr', KEYS[3]) == 1 then
+    redis.call('expire', KEYS[3], ARGV[6])
+end
+redis.call('set', KEYS[1], '1', 'EX', ARGV[3])
+redis.call('set', KEYS[4], ARGV[1], 'EX', ARGV[2])
+return 0
@@ -0,0 +1,15 @@
+-- 短信验证码回滚脚本：发送任务未能入队时撤销sms_code.lua的写入，用户可以立即重试且不占用配额
+-- KEYS[1] 手机号冷却key  KEYS[2] 手机号日计数key  KEYS[3] IP日计数key  KEYS[4] 验证码key
+-- ARGV[1] 本次写入的验证码
+redis.call('del', KEYS[1])
+if tonumber(redis.call('get', KEYS[2]) or '0') > 0 then
+    redis.call('decr', KEYS[2])
+end
+if tonumber(redis.call('get', KEYS[3]) or '0') > 0 then
+    redis.call('decr', KEYS[3])
+end
+-- 只删除本次写入的验证码
+if redis.call('get', KEYS[4]) == ARGV[1] then
+    redis.call('del', KEYS[4])
+end
+return 0
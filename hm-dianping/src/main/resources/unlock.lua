@@ -0,0 +1,6 @@
+-- 释放锁脚本：锁的值与本次加锁的标识一致才删除，避免锁过期后误删其他实例持有的锁
+-- KEYS[1] 锁key  ARGV[1] 加锁时写入的标识
+if redis.call('get', KEYS[1]) == ARGV[1] then
+    return redis.call('del', KEYS[1])
+end
+return 0
@@ -0,0 +1,39 @@
+package com.hmdp.service.impl;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class BlogExcerptTest {
+
+    @Test
+    void blankContent() {
+        assertEquals("", BlogServiceImpl.excerptOf(null));
+        assertEquals("", BlogServiceImpl.excerptOf(" \n "));
+    }
+
+    @Test
+    void stripsTagsAndCollapsesWhitespace() {
+        assertEquals("第一段 第二段 加粗",
+                BlogServiceImpl.excerptOf("<p>第一段</p><br/>第二段<BR>\n\n  <b>加粗</b>"));
+    }
+
+    @Test
+    void truncatesByCodePoint() {
+        StringBuilder sixty = new StringBuilder();
+        for (int i = 0; i < 60; i++) {
+            sixty.append('字');
+        }
+        assertEquals(sixty.toString(), BlogServiceImpl.excerptOf(sixty.toString()));
+        assertEquals(sixty + "…", BlogServiceImpl.excerptOf(sixty + "多"));
+
+        // emoji占两个char，截断时不能拆开
+        StringBuilder emoji = new StringBuilder();
+        for (int i = 0; i < 61; i++) {
+            emoji.append("🍲");
+        }
+        String excerpt = BlogServiceImpl.excerptOf(emoji.toString());
+        assertEquals(61, excerpt.codePointCount(0, excerpt.length()));
+        assertEquals(emoji.substring(0, 120) + "…", excerpt);
+    }
+}
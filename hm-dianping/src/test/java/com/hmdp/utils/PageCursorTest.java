@@ -0,0 +1,43 @@
+package com.hmdp.utils;
+
+import cn.hutool.core.codec.Base64;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class PageCursorTest {
+
+    @Test
+    void idOnlyRoundTrip() {
+        PageCursor cursor = PageCursor.decode(PageCursor.encode(42L));
+        assertNull(cursor.getSortKey());
+        assertEquals(42L, cursor.getId());
+    }
+
+    @Test
+    void sortKeyRoundTrip() {
+        PageCursor cursor = PageCursor.decode(PageCursor.encode(1700000000000L, 7L));
+        assertEquals(1700000000000L, cursor.sortKeyAsLong());
+        assertEquals(7L, cursor.getId());
+        // 排序值本身含有分隔符时按最后一个分隔符拆分
+        cursor = PageCursor.decode(PageCursor.encode("2021-12-22T10:00:00", 8L));
+        assertEquals("2021-12-22T10:00:00", cursor.getSortKey());
+        assertEquals(8L, cursor.getId());
+    }
+
+    @Test
+    void blankIsFirstPage() {
+        assertNull(PageCursor.decode(null));
+        assertNull(PageCursor.decode(""));
+        assertNull(PageCursor.decode("  "));
+    }
+
+    @Test
+    void invalidCursorIsRejected() {
+        assertThrows(InvalidCursorException.class, () -> PageCursor.decode(Base64.encodeUrlSafe("no-separator")));
+        assertThrows(InvalidCursorException.class, () -> PageCursor.decode(Base64.encodeUrlSafe("1:abc")));
+        assertThrows(InvalidCursorException.class, () -> PageCursor.decode(PageCursor.encode("abc", 1L)).sortKeyAsLong());
+    }
+}
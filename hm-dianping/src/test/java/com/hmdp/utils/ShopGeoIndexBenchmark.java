@@ -0,0 +1,114 @@
+package com.hmdp.utils;
+
+import com.hmdp.entity.Shop;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.springframework.data.redis.connection.lettuce.LettuceConnectionFactory;
+import org.springframework.data.redis.core.StringRedisTemplate;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import static com.hmdp.utils.RedisConstants.SHOP_GEO_KEY;
+
+/**
+ * 附近商铺查询的基准测试：进程内网格索引与redis GEO对比
+ * 需要本地6379端口的redis，运行main方法即可，测试数据写入 shop:geo:<typeId>，结束后删除
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ShopGeoIndexBenchmark {
+    private static final long TYPE_ID = 9999;
+    private static final double CENTER_X = 121.47;
+    private static final double CENTER_Y = 31.23;
+    private static final double SPAN = 0.5;
+    private static final double RADIUS_METERS = 5000;
+    private static final int PAGE_SIZE = 5;
+
+    @Param({"1000", "100000"})
+    private int shops;
+
+    private LettuceConnectionFactory connectionFactory;
+    private ShopGeoIndex redisIndex;
+    private ShopLocalGeoIndex localIndex;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        Random random = new Random(42);
+        List<Shop> list = new ArrayList<>(shops);
+        for (int i = 1; i <= shops; i++) {
+            Shop shop = new Shop();
+            shop.setId((long) i);
+            shop.setTypeId(TYPE_ID);
+            shop.setX(CENTER_X + (random.nextDouble() - 0.5) * SPAN);
+            shop.setY(CENTER_Y + (random.nextDouble() - 0.5) * SPAN);
+            list.add(shop);
+        }
+        localIndex = new ShopLocalGeoIndex();
+        localIndex.rebuild(list);
+
+        connectionFactory = new LettuceConnectionFactory("127.0.0.1", 6379);
+        connectionFactory.afterPropertiesSet();
+        StringRedisTemplate template = new StringRedisTemplate(connectionFactory);
+        template.delete(SHOP_GEO_KEY + TYPE_ID);
+        redisIndex = new ShopGeoIndex(template);
+        for (int i = 0; i < list.size(); i += 1000) {
+            redisIndex.addAll(list.subList(i, Math.min(i + 1000, list.size())));
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        new StringRedisTemplate(connectionFactory).delete(SHOP_GEO_KEY + TYPE_ID);
+        connectionFactory.destroy();
+    }
+
+    @Benchmark
+    public Map<Long, Double> localRadius() {
+        return localIndex.search(TYPE_ID, randomX(), randomY(), RADIUS_METERS, 0, PAGE_SIZE);
+    }
+
+    @Benchmark
+    public Map<Long, Double> localNearest() {
+        return localIndex.nearest(TYPE_ID, randomX(), randomY(), PAGE_SIZE);
+    }
+
+    @Benchmark
+    public Map<Long, Double> redisRadius() {
+        return redisIndex.search((int) TYPE_ID, randomX(), randomY(), RADIUS_METERS, 0, PAGE_SIZE);
+    }
+
+    private static double randomX() {
+        return CENTER_X + (ThreadLocalRandom.current().nextDouble() - 0.5) * SPAN;
+    }
+
+    private static double randomY() {
+        return CENTER_Y + (ThreadLocalRandom.current().nextDouble() - 0.5) * SPAN;
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder().include(ShopGeoIndexBenchmark.class.getSimpleName()).build()).run();
+    }
+}
@@ -0,0 +1,117 @@
+package com.hmdp.utils;
+
+import com.hmdp.entity.Shop;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ShopLocalGeoIndexTest {
+
+    private static final double X = 120.15;
+    private static final double Y = 30.28;
+
+    @Test
+    void searchMatchesBruteForce() {
+        Random random = new Random(42);
+        List<Shop> shops = new ArrayList<>();
+        for (long id = 1; id <= 3000; id++) {
+            shops.add(shop(id, id % 3 + 1, X + (random.nextDouble() - 0.5) * 0.2, Y + (random.nextDouble() - 0.5) * 0.2));
+        }
+        ShopLocalGeoIndex index = new ShopLocalGeoIndex();
+        index.rebuild(shops);
+        assertTrue(index.isReady());
+
+        double radius = 3000;
+        List<Long> expected = shops.stream()
+                .filter(s -> s.getTypeId() == 2L)
+                .filter(s -> ShopLocalGeoIndex.distance(X, Y, s.getX(), s.getY()) <= radius)
+                .sorted(Comparator.comparingDouble((Shop s) -> ShopLocalGeoIndex.distance(X, Y, s.getX(), s.getY())))
+                .map(Shop::getId)
+                .collect(Collectors.toList());
+        assertFalse(expected.isEmpty());
+        Map<Long, Double> result = index.search(2L, X, Y, radius, 0, expected.size() + 10);
+        assertEquals(expected, new ArrayList<>(result.keySet()));
+
+        // 分页结果是完整结果的连续片段
+        Map<Long, Double> page = index.search(2L, X, Y, radius, 5, 5);
+        assertEquals(expected.subList(5, 10), new ArrayList<>(page.keySet()));
+    }
+
+    @Test
+    void distancesAscendAndTypesArePartitioned() {
+        ShopLocalGeoIndex index = new ShopLocalGeoIndex();
+        index.rebuild(Arrays.asList(
+                shop(1L, 1L, X + 0.001, Y),
+                shop(2L, 1L, X + 0.003, Y),
+                shop(3L, 2L, X + 0.002, Y),
+                shop(4L, 1L, X + 0.2, Y)));
+        Map<Long, Double> result = index.search(1L, X, Y, 5000, 0, 10);
+        assertEquals(Arrays.asList(1L, 2L), new ArrayList<>(result.keySet()));
+        assertEquals(ShopLocalGeoIndex.distance(X, Y, X + 0.001, Y), result.get(1L), 1e-6);
+        assertTrue(index.search(3L, X, Y, 5000, 0, 10).isEmpty());
+    }
+
+    @Test
+    void outOfRangeOffsetsAreClamped() {
+        ShopLocalGeoIndex index = new ShopLocalGeoIndex();
+        index.rebuild(Arrays.asList(
+                shop(1L, 1L, X + 0.001, Y),
+                shop(2L, 1L, X + 0.002, Y)));
+        // 负的偏移量按0处理，超出结果数量时返回空
+        assertEquals(Arrays.asList(1L, 2L), new ArrayList<>(index.search(1L, X, Y, 1000, -10, 10).keySet()));
+        assertEquals(Collections.singletonList(1L), new ArrayList<>(index.search(1L, X, Y, 1000, -5, 1).keySet()));
+        assertTrue(index.search(1L, X, Y, 1000, 10, 10).isEmpty());
+        assertTrue(index.search(1L, X, Y, 1000, 0, -1).isEmpty());
+        assertEquals(Collections.singletonList(2L), new ArrayList<>(index.search(1L, X, Y, 1000, 1, Integer.MAX_VALUE).keySet()));
+    }
+
+    @Test
+    void nearestExpandsRadius() {
+        ShopLocalGeoIndex index = new ShopLocalGeoIndex();
+        index.rebuild(Arrays.asList(
+                shop(1L, 1L, X + 0.001, Y),
+                shop(2L, 1L, X + 0.05, Y),
+                shop(3L, 1L, X + 0.1, Y)));
+        assertEquals(Arrays.asList(1L, 2L), new ArrayList<>(index.nearest(1L, X, Y, 2).keySet()));
+        assertEquals(Arrays.asList(1L, 2L, 3L), new ArrayList<>(index.nearest(1L, X, Y, 5).keySet()));
+    }
+
+    @Test
+    void putMovesShopBetweenCellsAndTypes() {
+        ShopLocalGeoIndex index = new ShopLocalGeoIndex();
+        index.rebuild(Collections.singletonList(shop(1L, 1L, X, Y)));
+        index.put(shop(2L, 1L, X + 0.002, Y));
+        assertEquals(Arrays.asList(1L, 2L), new ArrayList<>(index.search(1L, X, Y, 1000, 0, 10).keySet()));
+        // 移动到远处
+        index.put(shop(1L, 1L, X + 0.5, Y));
+        assertEquals(Collections.singletonList(2L), new ArrayList<>(index.search(1L, X, Y, 1000, 0, 10).keySet()));
+        // 换类型
+        index.put(shop(2L, 2L, X + 0.002, Y));
+        assertTrue(index.search(1L, X, Y, 1000, 0, 10).isEmpty());
+        assertEquals(Collections.singletonList(2L), new ArrayList<>(index.search(2L, X, Y, 1000, 0, 10).keySet()));
+    }
+
+    @Test
+    void putsDuringRebuildAreReplayed() {
+        ShopLocalGeoIndex index = new ShopLocalGeoIndex();
+        index.beginRebuild();
+        index.put(shop(2L, 1L, X + 0.002, Y));
+        index.rebuild(Collections.singletonList(shop(1L, 1L, X, Y)));
+        assertEquals(Arrays.asList(1L, 2L), new ArrayList<>(index.search(1L, X, Y, 1000, 0, 10).keySet()));
+    }
+
+    private static Shop shop(Long id, Long typeId, double x, double y) {
+        return new Shop().setId(id).setTypeId(typeId).setX(x).setY(y);
+    }
+}
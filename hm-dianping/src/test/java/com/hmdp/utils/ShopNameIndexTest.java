@@ -0,0 +1,94 @@
+package com.hmdp.utils;
+
+import com.hmdp.entity.Shop;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ShopNameIndexTest {
+
+    private ShopNameIndex index;
+
+    @BeforeEach
+    void setUp() {
+        index = new ShopNameIndex();
+        index.rebuild(Arrays.asList(
+                shop(1L, "海底捞火锅"),
+                shop(2L, "小龙坎火锅"),
+                shop(3L, "火锅店"),
+                shop(4L, "火锅锅店"),
+                shop(5L, "Starbucks")));
+    }
+
+    @Test
+    void searchRanksExactPrefixThenPosition() {
+        assertTrue(index.isReady());
+        // 前缀匹配在前，其余按出现位置、名称长度、加入顺序
+        assertEquals(Arrays.asList(3L, 4L, 1L, 2L), index.search("火锅", 0, 10));
+        assertEquals(Collections.singletonList(3L), index.search("火锅店", 0, 10));
+    }
+
+    @Test
+    void bigramIntersectionIsVerifiedAgainstName() {
+        // "火锅锅店"同时含有"火锅"和"锅店"两个双字，但不包含"火锅店"
+        assertFalse(index.search("火锅店", 0, 10).contains(4L));
+        assertEquals(Collections.singletonList(4L), index.search("锅锅", 0, 10));
+    }
+
+    @Test
+    void singleCharAndCaseInsensitive() {
+        assertEquals(Collections.singletonList(1L), index.search("捞", 0, 10));
+        assertEquals(Collections.singletonList(5L), index.search(" STAR ", 0, 10));
+        assertTrue(index.search("麻辣烫", 0, 10).isEmpty());
+        assertTrue(index.search("", 0, 10).isEmpty());
+    }
+
+    @Test
+    void paging() {
+        assertEquals(Arrays.asList(3L, 4L), index.search("火锅", 0, 2));
+        assertEquals(Arrays.asList(1L, 2L), index.search("火锅", 2, 2));
+        assertTrue(index.search("火锅", 4, 2).isEmpty());
+        // 负的偏移量按0处理，数量为负或偏移量加数量溢出时不越界
+        assertEquals(Arrays.asList(3L, 4L), index.search("火锅", -10, 2));
+        assertTrue(index.search("火锅", 0, -1).isEmpty());
+        assertEquals(Arrays.asList(2L), index.search("火锅", 3, Integer.MAX_VALUE));
+    }
+
+    @Test
+    void renameTombstonesOldDocument() {
+        index.put(shop(1L, "海底捞自助"));
+        assertEquals(Arrays.asList(3L, 4L, 2L), index.search("火锅", 0, 10));
+        assertEquals(Collections.singletonList(1L), index.search("自助", 0, 10));
+        // 名称没有变化时不追加新文档
+        index.put(shop(1L, "海底捞自助"));
+        assertEquals(Collections.singletonList(1L), index.search("海底捞", 0, 10));
+    }
+
+    @Test
+    void putsDuringRebuildAreReplayed() {
+        index.beginRebuild();
+        // 读取全量商铺期间新增的商铺，读到的列表里没有它
+        index.put(shop(6L, "新开火锅"));
+        index.rebuild(Collections.singletonList(shop(3L, "火锅店")));
+        assertEquals(Arrays.asList(3L, 6L), index.search("火锅", 0, 10));
+    }
+
+    @Test
+    void cancelledRebuildStopsCapturing() {
+        index.beginRebuild();
+        index.cancelRebuild();
+        index.put(shop(6L, "新开火锅"));
+        index.rebuild(Collections.singletonList(shop(3L, "火锅店")));
+        assertEquals(Collections.singletonList(3L), index.search("火锅", 0, 10));
+    }
+
+    private static Shop shop(Long id, String name) {
+        return new Shop().setId(id).setName(name);
+    }
+}
@@ -0,0 +1,85 @@
+package com.hmdp.utils;
+
+import com.hmdp.dto.ShopSuggestDTO;
+import com.hmdp.entity.Shop;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ShopNameSuggesterTest {
+
+    private ShopNameSuggester suggester;
+
+    @BeforeEach
+    void setUp() {
+        suggester = new ShopNameSuggester();
+        suggester.rebuild(Arrays.asList(
+                shop(1L, "海底捞火锅", 100, 45),
+                shop(2L, "海底捞自助", 300, 40),
+                shop(3L, "海鲜大排档", 300, 48),
+                shop(4L, "小龙坎火锅", 500, 47)));
+    }
+
+    @Test
+    void suggestOrdersBySoldThenScoreThenId() {
+        assertTrue(suggester.isReady());
+        assertEquals(Arrays.asList(3L, 2L, 1L), ids(suggester.suggest("海", 10)));
+        assertEquals(Arrays.asList(2L, 1L), ids(suggester.suggest("海底捞", 10)));
+        assertEquals(Collections.singletonList(3L), ids(suggester.suggest("海", 1)));
+        assertTrue(suggester.suggest("火锅", 10).isEmpty());
+        assertTrue(suggester.suggest("海", -1).isEmpty());
+    }
+
+    @Test
+    void emptyPrefixReturnsGlobalTop() {
+        assertEquals(Arrays.asList(4L, 3L, 2L, 1L), ids(suggester.suggest("", 10)));
+    }
+
+    @Test
+    void eachNodeKeepsOnlyTopK() {
+        List<Shop> shops = new ArrayList<>();
+        for (long id = 1; id <= 25; id++) {
+            shops.add(shop(id, "店" + id, (int) id, 0));
+        }
+        suggester.rebuild(shops);
+        List<Long> top = ids(suggester.suggest("店", 100));
+        assertEquals(ShopNameSuggester.TOP_K, top.size());
+        assertEquals(25L, top.get(0));
+        assertEquals(16L, top.get(top.size() - 1));
+    }
+
+    @Test
+    void putReranksOldAndNewPaths() {
+        // 销量变化后重新排序
+        suggester.put(shop(1L, "海底捞火锅", 1000, 45));
+        assertEquals(Arrays.asList(1L, 3L, 2L), ids(suggester.suggest("海", 10)));
+        // 改名后从旧前缀下移除
+        suggester.put(shop(2L, "小菜园", 300, 40));
+        assertEquals(Collections.singletonList(1L), ids(suggester.suggest("海底捞", 10)));
+        assertEquals(Collections.singletonList(2L), ids(suggester.suggest("小菜", 10)));
+    }
+
+    @Test
+    void putsDuringRebuildAreReplayed() {
+        suggester.beginRebuild();
+        suggester.put(shop(5L, "海底捞外卖", 900, 40));
+        suggester.rebuild(Collections.singletonList(shop(1L, "海底捞火锅", 100, 45)));
+        assertEquals(Arrays.asList(5L, 1L), ids(suggester.suggest("海底捞", 10)));
+    }
+
+    private static List<Long> ids(List<ShopSuggestDTO> suggestions) {
+        return suggestions.stream().map(ShopSuggestDTO::getId).collect(Collectors.toList());
+    }
+
+    private static Shop shop(Long id, String name, int sold, int score) {
+        return new Shop().setId(id).setName(name).setSold(sold).setScore(score);
+    }
+}